@@ -21,9 +21,13 @@ import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.os.UserHandle;
+import android.text.TextUtils;
+
+import java.text.CollationKey;
 
 import com.pixeldust.launcher.compat.LauncherActivityInfoCompat;
 import com.pixeldust.launcher.compat.UserManagerCompat;
+import com.pixeldust.launcher.model.AppSortKeys;
 import com.pixeldust.launcher.util.ComponentKey;
 import com.pixeldust.launcher.util.PackageManagerHelper;
 
@@ -51,6 +55,16 @@ public class AppInfo extends ItemInfoWithIcon {
 
     public CharSequence originalTitle;
 
+    /**
+     * The collation key and the section name of the title, see {@link AppSortKeys}.
+     */
+    public CollationKey collationKey;
+    public String sectionName;
+    public boolean startsWithLetterOrDigit;
+    // The instance which computed the keys above, and the title they were computed for
+    public AppSortKeys sortKeys;
+    public CharSequence sortKeysTitle;
+
     static final int DOWNLOADED_FLAG = 1;
     static final int UPDATED_SYSTEM_APP_FLAG = 2;
 
@@ -117,6 +131,18 @@ public class AppInfo extends ItemInfoWithIcon {
         flags = info.flags;
         isDisabled = info.isDisabled;
         iconBitmap = info.iconBitmap;
+        if (info.sortKeys != null && info.sortKeysTitle == info.title) {
+            if (TextUtils.equals(title, info.title)) {
+                // Trimming didn't change the title, so the keys are still the same
+                collationKey = info.collationKey;
+                sectionName = info.sectionName;
+                startsWithLetterOrDigit = info.startsWithLetterOrDigit;
+                sortKeys = info.sortKeys;
+                sortKeysTitle = title;
+            } else {
+                info.sortKeys.updateKeys(this);
+            }
+        }
     }
 
     @Override
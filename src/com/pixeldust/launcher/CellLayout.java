@@ -35,6 +35,7 @@ import android.support.annotation.NonNull;
 import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.util.LongSparseArray;
 import android.util.SparseArray;
 import android.view.MotionEvent;
 import android.view.View;
@@ -104,6 +105,15 @@ public class CellLayout extends ViewGroup implements BubbleTextShadowHandler {
     private GridOccupancy mOccupied;
     private GridOccupancy mTmpOccupied;
 
+    // Results of rearrangementExists during the current drag, valid as long as the committed
+    // placement of the items doesn't change
+    private final LongSparseArray<CachedRearrangement> mRearrangementCache =
+            new LongSparseArray<>();
+    private GridOccupancy mRearrangementCacheOccupied;
+    private int mRearrangementCacheModCount;
+    private int mRearrangementCacheChildCount;
+    private View mRearrangementCacheDragView;
+
     private OnTouchListener mInterceptTouchListener;
     private StylusEventHelper mStylusEventHelper;
 
@@ -342,7 +352,14 @@ public class CellLayout extends ViewGroup implements BubbleTextShadowHandler {
     }
 
     public void enableHardwareLayer(boolean hasLayer) {
-        mShortcutsAndWidgets.setLayerType(hasLayer ? LAYER_TYPE_HARDWARE : LAYER_TYPE_NONE, sPaint);
+        int layerType = hasLayer ? LAYER_TYPE_HARDWARE : LAYER_TYPE_NONE;
+        if (mShortcutsAndWidgets.getLayerType() != layerType) {
+            mShortcutsAndWidgets.setLayerType(layerType, sPaint);
+        }
+    }
+
+    public boolean hasHardwareLayer() {
+        return mShortcutsAndWidgets.getLayerType() == LAYER_TYPE_HARDWARE;
     }
 
     public void buildHardwareLayer() {
@@ -1157,12 +1174,8 @@ public class CellLayout extends ViewGroup implements BubbleTextShadowHandler {
                 int xSize = -1;
                 if (ignoreOccupied) {
                     // First, let's see if this thing fits anywhere
-                    for (int i = 0; i < minSpanX; i++) {
-                        for (int j = 0; j < minSpanY; j++) {
-                            if (mOccupied.cells[x + i][y + j]) {
-                                continue inner;
-                            }
-                        }
+                    if (!mOccupied.isRegionVacant(x, y, minSpanX, minSpanY)) {
+                        continue inner;
                     }
                     xSize = minSpanX;
                     ySize = minSpanY;
@@ -1176,7 +1189,7 @@ public class CellLayout extends ViewGroup implements BubbleTextShadowHandler {
                     while (!(hitMaxX && hitMaxY)) {
                         if (incX && !hitMaxX) {
                             for (int j = 0; j < ySize; j++) {
-                                if (x + xSize > countX - 1 || mOccupied.cells[x + xSize][y + j]) {
+                                if (x + xSize > countX - 1 || mOccupied.isOccupied(x + xSize, y + j)) {
                                     // We can't move out horizontally
                                     hitMaxX = true;
                                 }
@@ -1186,7 +1199,7 @@ public class CellLayout extends ViewGroup implements BubbleTextShadowHandler {
                             }
                         } else if (!hitMaxY) {
                             for (int i = 0; i < xSize; i++) {
-                                if (y + ySize > countY - 1 || mOccupied.cells[x + i][y + ySize]) {
+                                if (y + ySize > countY - 1 || mOccupied.isOccupied(x + i, y + ySize)) {
                                     // We can't move out vertically
                                     hitMaxY = true;
                                 }
@@ -1264,7 +1277,7 @@ public class CellLayout extends ViewGroup implements BubbleTextShadowHandler {
      * nearest the requested location.
      */
     private int[] findNearestArea(int cellX, int cellY, int spanX, int spanY, int[] direction,
-                                  boolean[][] occupied, boolean blockOccupied[][], int[] result) {
+                                  GridOccupancy occupied, GridOccupancy blockOccupied, int[] result) {
         // Keep track of best-scoring drop area
         final int[] bestXY = result != null ? result : new int[2];
         float bestDistance = Float.MAX_VALUE;
@@ -1277,12 +1290,9 @@ public class CellLayout extends ViewGroup implements BubbleTextShadowHandler {
             inner:
             for (int x = 0; x < countX - (spanX - 1); x++) {
                 // First, let's see if this thing fits anywhere
-                for (int i = 0; i < spanX; i++) {
-                    for (int j = 0; j < spanY; j++) {
-                        if (occupied[x + i][y + j] && (blockOccupied == null || blockOccupied[i][j])) {
-                            continue inner;
-                        }
-                    }
+                if (blockOccupied == null ? !occupied.isRegionVacant(x, y, spanX, spanY)
+                        : !occupied.isShapeVacant(x, y, blockOccupied)) {
+                    continue inner;
                 }
 
                 float distance = (float) Math.hypot(x - cellX, y - cellY);
@@ -1319,7 +1329,7 @@ public class CellLayout extends ViewGroup implements BubbleTextShadowHandler {
         mTmpOccupied.markCells(rectOccupiedByPotentialDrop, true);
 
         findNearestArea(c.cellX, c.cellY, c.spanX, c.spanY, direction,
-                mTmpOccupied.cells, null, mTempLocation);
+                mTmpOccupied, null, mTempLocation);
 
         if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
             c.cellX = mTempLocation[0];
@@ -1641,7 +1651,7 @@ public class CellLayout extends ViewGroup implements BubbleTextShadowHandler {
 
         findNearestArea(boundingRect.left, boundingRect.top, boundingRect.width(),
                 boundingRect.height(), direction,
-                mTmpOccupied.cells, blockOccupied.cells, mTempLocation);
+                mTmpOccupied, blockOccupied, mTempLocation);
 
         // If we successfuly found a location by pushing the block of views, we commit it
         if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
@@ -1765,6 +1775,60 @@ public class CellLayout extends ViewGroup implements BubbleTextShadowHandler {
         // Return early if get invalid cell positions
         if (cellX < 0 || cellY < 0) return false;
 
+        // The search only depends on the committed placement of the items, which doesn't change
+        // while the finger crosses cells, so its result is reused for the same target
+        validateRearrangementCache(ignoreView);
+        long key = cellX | (cellY << 8) | (spanX << 16) | ((long) spanY << 24)
+                | ((long) (direction[0] + 1) << 32) | ((long) (direction[1] + 1) << 34);
+        CachedRearrangement cached = mRearrangementCache.get(key);
+        if (cached != null) {
+            cached.applyTo(solution);
+            return cached.success;
+        }
+        boolean success = searchRearrangement(cellX, cellY, spanX, spanY, direction, ignoreView,
+                solution);
+        mRearrangementCache.put(key, new CachedRearrangement(success, solution));
+        return success;
+    }
+
+    private void validateRearrangementCache(View dragView) {
+        int childCount = mShortcutsAndWidgets.getChildCount();
+        if (mRearrangementCacheOccupied != mOccupied
+                || mRearrangementCacheModCount != mOccupied.getModCount()
+                || mRearrangementCacheChildCount != childCount
+                || mRearrangementCacheDragView != dragView) {
+            mRearrangementCache.clear();
+            mRearrangementCacheOccupied = mOccupied;
+            mRearrangementCacheModCount = mOccupied.getModCount();
+            mRearrangementCacheChildCount = childCount;
+            mRearrangementCacheDragView = dragView;
+        }
+    }
+
+    private void clearRearrangementCache() {
+        mRearrangementCache.clear();
+        mRearrangementCacheOccupied = null;
+        mRearrangementCacheDragView = null;
+    }
+
+    /**
+     * Returns whether there is enough vacant space, counting the cells of the view being dragged,
+     * for an item of the given span. Moving items around never creates space, so there can't be
+     * any solution otherwise.
+     */
+    private boolean hasSpaceForSpan(int spanX, int spanY, View dragView) {
+        int vacant = mOccupied.getVacantCellCount();
+        if (dragView != null && dragView.getParent() == mShortcutsAndWidgets) {
+            LayoutParams lp = (LayoutParams) dragView.getLayoutParams();
+            vacant += mOccupied.countOccupiedCells(lp.cellX, lp.cellY, lp.cellHSpan,
+                    lp.cellVSpan);
+        }
+        return vacant >= spanX * spanY;
+    }
+
+    private boolean searchRearrangement(int cellX, int cellY, int spanX, int spanY,
+                                        int[] direction, View ignoreView,
+                                        ItemConfiguration solution) {
         mIntersectingViews.clear();
         mOccupiedRect.set(cellX, cellY, cellX + spanX, cellY + spanY);
 
@@ -1850,7 +1914,8 @@ public class CellLayout extends ViewGroup implements BubbleTextShadowHandler {
         boolean success;
         // First we try the exact nearest position of the item being dragged,
         // we will then want to try to move this around to other neighbouring positions
-        success = rearrangementExists(result[0], result[1], spanX, spanY, direction, dragView,
+        success = hasSpaceForSpan(spanX, spanY, dragView)
+                && rearrangementExists(result[0], result[1], spanX, spanY, direction, dragView,
                 solution);
 
         if (!success) {
@@ -2435,6 +2500,37 @@ public class CellLayout extends ViewGroup implements BubbleTextShadowHandler {
         }
     }
 
+    /**
+     * The outcome of a rearrangement search: the placement of every item, and which ones were in
+     * the way of the dragged item.
+     */
+    private static class CachedRearrangement {
+        final boolean success;
+        final HashMap<View, CellAndSpan> placement = new HashMap<>();
+        final ArrayList<View> intersectingViews;
+
+        CachedRearrangement(boolean success, ItemConfiguration solution) {
+            this.success = success;
+            for (View v : solution.map.keySet()) {
+                CellAndSpan c = new CellAndSpan();
+                c.copyFrom(solution.map.get(v));
+                placement.put(v, c);
+            }
+            intersectingViews = solution.intersectingViews;
+        }
+
+        void applyTo(ItemConfiguration solution) {
+            for (View v : placement.keySet()) {
+                CellAndSpan c = solution.map.get(v);
+                if (c != null) {
+                    c.copyFrom(placement.get(v));
+                }
+            }
+            solution.intersectingViews = intersectingViews == null
+                    ? null : new ArrayList<>(intersectingViews);
+        }
+    }
+
     /**
      * Find a starting cell position that will fit the given bounds nearest the requested
      * cell location. Uses Euclidean distance to score multiple vacant areas.
@@ -2476,6 +2572,7 @@ public class CellLayout extends ViewGroup implements BubbleTextShadowHandler {
      */
     void onDragEnter() {
         mDragging = true;
+        clearRearrangementCache();
     }
 
     /**
@@ -2488,6 +2585,7 @@ public class CellLayout extends ViewGroup implements BubbleTextShadowHandler {
         if (mDragging) {
             mDragging = false;
         }
+        clearRearrangementCache();
 
         // Invalidate the drag data
         mDragCell[0] = mDragCell[1] = -1;
@@ -2564,7 +2662,7 @@ public class CellLayout extends ViewGroup implements BubbleTextShadowHandler {
 
     public boolean isOccupied(int x, int y) {
         if (x < mCountX && y < mCountY) {
-            return mOccupied.cells[x][y];
+            return mOccupied.isOccupied(x, y);
         } else {
             return true;
             //throw new RuntimeException("Position exceeds the bound of this CellLayout");
@@ -2771,6 +2869,9 @@ public class CellLayout extends ViewGroup implements BubbleTextShadowHandler {
      * if necessary).
      */
     public boolean hasReorderSolution(ItemInfo itemInfo) {
+        if (!hasSpaceForSpan(itemInfo.minSpanX, itemInfo.minSpanY, null)) {
+            return false;
+        }
         int[] cellPoint = new int[2];
         // Check for a solution starting at every cell.
         for (int cellX = 0; cellX < getCountX(); cellX++) {
@@ -19,13 +19,20 @@ public class DumbImportExportTask {
     public static void exportDB(Activity activity) {
         ContextWrapper contextWrapper = new ContextWrapper(activity);
         File db = contextWrapper.getDatabasePath(LauncherFiles.LAUNCHER_DB);
+        // Recent writes are still in the write-ahead log
+        LauncherSettings.Settings.call(activity.getContentResolver(),
+                LauncherSettings.Settings.METHOD_CHECKPOINT_DB);
         exportFile(db, activity);
     }
 
     public static void importDB(Activity activity) {
         ContextWrapper contextWrapper = new ContextWrapper(activity);
         File db = contextWrapper.getDatabasePath(LauncherFiles.LAUNCHER_DB);
-        importFile(db, activity);
+        if (importFile(db, activity)) {
+            // The write-ahead log of the old database must not be applied to the imported one
+            new File(db.getPath() + "-wal").delete();
+            new File(db.getPath() + "-shm").delete();
+        }
     }
 
     public static void exportPrefs(Activity activity) {
@@ -58,23 +65,25 @@ public class DumbImportExportTask {
         }
     }
 
-    private static void importFile(File file, Activity activity) {
+    private static boolean importFile(File file, Activity activity) {
         if (!isExternalStorageReadable() || !canWriteStorage(activity)) {
             Toast.makeText(activity, "External Storage is not writable (grant Permission in settings)", Toast.LENGTH_LONG).show();
-            return;
+            return false;
         }
         File backup = new File(getFolder(), file.getName());
         if (!backup.exists()) {
             Toast.makeText(activity, "No backup found", Toast.LENGTH_LONG).show();
-            return;
+            return false;
         }
         if (file.exists()) {
             file.delete();
         }
         if (copy(backup, file)) {
             Toast.makeText(activity, "Success!", Toast.LENGTH_LONG).show();
+            return true;
         } else {
             Toast.makeText(activity, "Error: Failed to copy file", Toast.LENGTH_LONG).show();
+            return false;
         }
     }
 
@@ -31,6 +31,8 @@ import android.util.SparseArray;
 
 import java.nio.ByteBuffer;
 
+import com.pixeldust.launcher.util.BitmapPool;
+
 /**
  * Utility class to generate shadow and outline effect, which are used for click feedback
  * and drag-n-drop respectively.
@@ -174,7 +176,11 @@ public class HolographicOutlineHelper {
         int key = (bitmapWidth << 16) | bitmapHeight;
         Bitmap cache = shouldCache ? mBitmapCache.get(key) : null;
         if (cache == null) {
-            cache = Bitmap.createBitmap(bitmapWidth, bitmapHeight, Bitmap.Config.ALPHA_8);
+            // Uncached intermediate bitmaps are borrowed from, and returned to, the shared pool
+            cache = shouldCache
+                    ? Bitmap.createBitmap(bitmapWidth, bitmapHeight, Bitmap.Config.ALPHA_8)
+                    : BitmapPool.getInstance().get(bitmapWidth, bitmapHeight,
+                            Bitmap.Config.ALPHA_8);
             mCanvas.setBitmap(cache);
 
             if (shouldCache) {
@@ -201,7 +207,7 @@ public class HolographicOutlineHelper {
         key = (resultWidth << 16) | resultHeight;
         Bitmap result = shouldCache ? mBitmapCache.get(key) : null;
         if (result == null) {
-            result = Bitmap.createBitmap(resultWidth, resultHeight, Bitmap.Config.ALPHA_8);
+            result = BitmapPool.getInstance().get(resultWidth, resultHeight, Bitmap.Config.ALPHA_8);
             mCanvas.setBitmap(result);
         } else {
             // Use put instead of delete, to avoid unnecessary shrinking of cache array
@@ -211,6 +217,9 @@ public class HolographicOutlineHelper {
         }
         mCanvas.drawBitmap(cache, mShadowBitmapShift, mShadowBitmapShift, mBlurPaint);
         mCanvas.setBitmap(null);
+        if (!shouldCache) {
+            BitmapPool.getInstance().put(cache);
+        }
         return result;
     }
 
@@ -16,6 +16,8 @@
 
 package com.pixeldust.launcher;
 
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
 import android.content.ComponentName;
 import android.content.ContentValues;
 import android.content.Context;
@@ -44,20 +46,31 @@ import android.os.UserHandle;
 import android.text.TextUtils;
 import android.util.Log;
 
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.pixeldust.launcher.compat.LauncherActivityInfoCompat;
 import com.pixeldust.launcher.compat.LauncherAppsCompat;
 import com.pixeldust.launcher.compat.UserManagerCompat;
+import com.pixeldust.launcher.model.AppSortKeys;
 import com.pixeldust.launcher.model.PackageItemInfo;
 import com.pixeldust.launcher.pixelify.PixelIconProvider;
 import com.pixeldust.launcher.util.ComponentKey;
+import com.pixeldust.launcher.util.Executors;
+import com.pixeldust.launcher.util.IconAtlas;
 import com.pixeldust.launcher.util.SQLiteCacheHelper;
 import com.pixeldust.launcher.util.Thunk;
 
@@ -75,18 +88,42 @@ public class IconCache {
 
     private static final int LOW_RES_SCALE_FACTOR = 5;
 
+    // Number of locks used when loading missing entries, see {@link #getLoadLock}.
+    private static final int LOAD_LOCK_COUNT = 16;
+
+    // Fraction of the app memory class used for icon bitmaps, and the fraction of the budget
+    // which is kept after the cache overflows.
+    private static final int MEMORY_CLASS_DIVIDER = 8;
+    private static final int LOW_RAM_MEMORY_CLASS_DIVIDER = 16;
+    private static final float TRIM_TARGET_FRACTION = 0.75f;
+
+    // Delay before rebuilding the icon atlas, so that consecutive DB updates are coalesced.
+    private static final long ATLAS_REBUILD_DELAY = 5000;
+
     @Thunk
     static final Object ICON_UPDATE_TOKEN = new Object();
 
+    // Number of rendered icons written to the DB in a single transaction.
+    @Thunk
+    static final int ICON_UPDATE_BATCH_SIZE = 16;
+
+    /**
+     * Entries are never modified once they are put in the cache, so that they can be read
+     * without any locking. Only their access time is updated.
+     */
     @Thunk
     static class CacheEntry {
         public Bitmap icon;
         public CharSequence title = "";
         public CharSequence contentDescription = "";
         public boolean isLowResIcon;
+        // Set for the entries of packages being installed, which are not in the DB
+        public boolean isInstallInfo;
+        // Uptime of the last access, only used to pick the entries to trim
+        volatile long lastAccess;
     }
 
-    private final HashMap<UserHandle, Bitmap> mDefaultIcons = new HashMap<>();
+    private final ConcurrentHashMap<UserHandle, Bitmap> mDefaultIcons = new ConcurrentHashMap<>();
     @Thunk
     final MainThreadExecutor mMainThreadExecutor = new MainThreadExecutor();
 
@@ -95,15 +132,42 @@ public class IconCache {
     @Thunk
     final UserManagerCompat mUserManager;
     private final LauncherAppsCompat mLauncherApps;
-    private final HashMap<ComponentKey, CacheEntry> mCache =
-            new HashMap<>(INITIAL_ICON_CACHE_CAPACITY);
+    private final ConcurrentHashMap<ComponentKey, CacheEntry> mCache =
+            new ConcurrentHashMap<>(INITIAL_ICON_CACHE_CAPACITY);
+    // Component and package entries use separate locks, as a component entry can fall back to
+    // loading its package entry while holding its own lock.
+    private final Object[] mComponentLoadLocks = new Object[LOAD_LOCK_COUNT];
+    private final Object[] mPackageLoadLocks = new Object[LOAD_LOCK_COUNT];
+
+    // Size accounting for the memory cache, see {@link #putEntry} and {@link #trimToSize}.
+    private final long mMaxCacheBytes;
+    private final AtomicLong mCacheBytes = new AtomicLong();
+    private final AtomicBoolean mTrimScheduled = new AtomicBoolean();
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mEvictionCount = new AtomicLong();
     private final int mIconDpi;
     @Thunk
     final IconDB mIconDb;
 
+    // Packed copy of the low-res icons in the DB, used to load all-apps icons on cold start.
+    // Rows written after the atlas was built are tracked in mAtlasInvalidKeys and are read from
+    // the DB instead. All fields are guarded by mAtlasLock.
+    private final Object mAtlasLock = new Object();
+    private final File mAtlasFile;
+    private final int mAtlasVersion;
+    private IconAtlas mIconAtlas;
+    private boolean mAtlasLoaded;
+    private final HashSet<String> mAtlasInvalidKeys = new HashSet<>();
+    private int mAtlasWriteCount;
+
     @Thunk
     final Handler mWorkerHandler;
 
+    // Incremented every time pending icon updates are cancelled.
+    @Thunk
+    final AtomicInteger mIconUpdateGeneration = new AtomicInteger();
+
     // The background color used for activity icons. Since these icons are displayed in all-apps
     // and folders, this would be same as the light quantum panel background. This color
     // is used to convert icons to RGB_565.
@@ -115,8 +179,16 @@ public class IconCache {
 
     public PixelIconProvider pip;
 
-    private Canvas mLowResCanvas;
-    private Paint mLowResPaint;
+    // Low-res icons are generated on several threads at once, each with its own canvas. The
+    // paint is never modified, so it is shared.
+    private static final ThreadLocal<Canvas> sLowResCanvas = new ThreadLocal<Canvas>() {
+        @Override
+        protected Canvas initialValue() {
+            return new Canvas();
+        }
+    };
+    private final Paint mLowResPaint =
+            new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
 
     public IconCache(Context context, InvariantDeviceProfile inv) {
         mContext = context;
@@ -125,12 +197,19 @@ public class IconCache {
         mLauncherApps = LauncherAppsCompat.getInstance(mContext);
         mIconDpi = inv.fillResIconDpi;
         mIconDb = new IconDB(context, inv.iconBitmapSize);
-        mLowResCanvas = new Canvas();
-        mLowResPaint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
+        mAtlasFile = new File(context.getCacheDir(), LauncherFiles.APP_ICONS_ATLAS);
+        mAtlasVersion = IconDB.getVersion(inv.iconBitmapSize);
+        for (int i = 0; i < LOAD_LOCK_COUNT; i++) {
+            mComponentLoadLocks[i] = new Object();
+            mPackageLoadLocks[i] = new Object();
+        }
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        mMaxCacheBytes = am.getMemoryClass() * 1024L * 1024L / (am.isLowRamDevice()
+                ? LOW_RAM_MEMORY_CLASS_DIVIDER : MEMORY_CLASS_DIVIDER);
 
         pip = new PixelIconProvider(context);
 
-        mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
+        mWorkerHandler = new Handler(Executors.ICON_EXECUTOR.getLooper());
 
         mActivityBgColor = context.getResources().getColor(R.color.quantum_panel_bg_color);
         TypedArray ta = context.obtainStyledAttributes(new int[]{R.attr.colorSecondary});
@@ -186,24 +265,20 @@ public class IconCache {
     /**
      * Remove any records for the supplied ComponentName.
      */
-    public synchronized void remove(ComponentName componentName, UserHandle user) {
-        mCache.remove(new ComponentKey(componentName, user));
+    public void remove(ComponentName componentName, UserHandle user) {
+        removeEntry(new ComponentKey(componentName, user));
     }
 
     /**
      * Remove any records for the supplied package name from memory.
      */
     private void removeFromMemCacheLocked(String packageName, UserHandle user) {
-        HashSet<ComponentKey> forDeletion = new HashSet<>();
         for (ComponentKey key : mCache.keySet()) {
             if (key.componentName.getPackageName().equals(packageName)
                     && key.user.equals(user)) {
-                forDeletion.add(key);
+                removeEntry(key);
             }
         }
-        for (ComponentKey condemned : forDeletion) {
-            mCache.remove(condemned);
-        }
     }
 
     /**
@@ -224,13 +299,33 @@ public class IconCache {
     }
 
     /**
-     * Updates the entries related to all packages in memory and persistent DB.
+     * Marks all the entries of the user as stale, eg. after an icon pack change. Any pending
+     * update is cancelled, and the icons are re-rendered by the next {@link #updateDbIcons}.
+     * The entries of the user are removed from memory, so that the next load doesn't bind the
+     * old icons in the meantime.
      */
-    public void updateIconsForAll(final UserHandle user) {
-        long userSerial = mUserManager.getSerialNumberForUser(user);
-        for (LauncherActivityInfoCompat app : mLauncherApps.getActivityList(null, user)) {
-            updateIconInDBAndMemCache(app, userSerial);
+    public synchronized void updateIconsForAll(final UserHandle user) {
+        cancelIconUpdates();
+        for (ComponentKey key : mCache.keySet()) {
+            CacheEntry entry = mCache.get(key);
+            if (key.user.equals(user) && entry != null && !entry.isInstallInfo) {
+                removeEntry(key);
+            }
         }
+        invalidateAtlas(null);
+        ContentValues values = new ContentValues();
+        values.put(IconDB.COLUMN_SYSTEM_STATE, "");
+        mIconDb.update(values, IconDB.COLUMN_USER + " = ?",
+                new String[]{Long.toString(mUserManager.getSerialNumberForUser(user))});
+    }
+
+    /**
+     * Cancels all the pending icon updates. Icons which are already rendered are kept in the
+     * memory cache, but are not written to the DB.
+     */
+    public void cancelIconUpdates() {
+        mIconUpdateGeneration.incrementAndGet();
+        mWorkerHandler.removeCallbacksAndMessages(ICON_UPDATE_TOKEN);
     }
 
     /**
@@ -238,7 +333,9 @@ public class IconCache {
      */
     public synchronized void removeIconsForPkg(String packageName, UserHandle user) {
         removeFromMemCacheLocked(packageName, user);
+        pip.removeIconsForPkg(packageName);
         long userSerial = mUserManager.getSerialNumberForUser(user);
+        invalidateAtlas(getAtlasKey(packageName, userSerial));
         mIconDb.delete(
                 IconDB.COLUMN_COMPONENT + " LIKE ? AND " + IconDB.COLUMN_USER + " = ?",
                 new String[]{packageName + "/%", Long.toString(userSerial)});
@@ -246,7 +343,7 @@ public class IconCache {
 
     public void updateDbIcons(Set<String> ignorePackagesForMainUser) {
         // Remove all active icon update tasks.
-        mWorkerHandler.removeCallbacksAndMessages(ICON_UPDATE_TOKEN);
+        cancelIconUpdates();
 
         for (UserHandle user : mUserManager.getUserProfiles()) {
             // Query for the set of apps
@@ -260,11 +357,12 @@ public class IconCache {
                 }
             }
 
-            // Update icon cache. This happens in segments and {@link #onPackageIconsUpdated}
+            // Update icon cache. This happens in parallel and {@link #onPackageIconsUpdated}
             // is called by the icon cache when the job is complete.
             updateDBIcons(user, apps, Utilities.myUserHandle().equals(user)
                     ? ignorePackagesForMainUser : Collections.<String>emptySet());
         }
+        scheduleAtlasRebuild();
     }
 
     /**
@@ -288,7 +386,7 @@ public class IconCache {
         }
 
         HashSet<Integer> itemsToRemove = new HashSet<>();
-        Stack<LauncherActivityInfoCompat> appsToUpdate = new Stack<>();
+        ArrayList<LauncherActivityInfoCompat> appsToUpdate = new ArrayList<>();
 
         Cursor c = null;
         try {
@@ -312,6 +410,7 @@ public class IconCache {
                 if (info == null) {
                     if (!ignorePackages.contains(component.getPackageName())) {
                         remove(component, user);
+                        invalidateAtlas(getAtlasKey(cn, userSerial));
                         itemsToRemove.add(c.getInt(rowIndex));
                     }
                     continue;
@@ -330,6 +429,7 @@ public class IconCache {
                 }
                 if (app == null) {
                     remove(component, user);
+                    invalidateAtlas(getAtlasKey(cn, userSerial));
                     itemsToRemove.add(c.getInt(rowIndex));
                 } else {
                     appsToUpdate.add(app);
@@ -350,10 +450,8 @@ public class IconCache {
 
         // Insert remaining apps.
         if (!componentMap.isEmpty() || !appsToUpdate.isEmpty()) {
-            Stack<LauncherActivityInfoCompat> appsToAdd = new Stack<>();
-            appsToAdd.addAll(componentMap.values());
-            new SerializedIconUpdateTask(userSerial, pkgInfoMap,
-                    appsToAdd, appsToUpdate).scheduleNext();
+            new ParallelIconUpdateTask(userSerial, pkgInfoMap,
+                    new ArrayList<>(componentMap.values()), appsToUpdate).start();
         }
     }
 
@@ -366,30 +464,6 @@ public class IconCache {
         addIconToDB(values, app.getComponentName(), info, userSerial);
     }
 
-    @Thunk
-    void updateIconInDBAndMemCache(LauncherActivityInfoCompat app, long userSerial) {
-        // Reuse the existing entry if it already exists in the DB. This ensures that we do not
-        // create bitmap if it was already created during loader.
-        final ComponentKey key = new ComponentKey(app.getComponentName(), app.getUser());
-        CacheEntry entry;
-        entry = mCache.get(key);
-        if (entry == null) {
-            return;
-        }
-        Bitmap tmp = entry.icon;
-        entry.icon = Utilities.createBadgedIconBitmap(
-                pip.getIcon(app, mIconDpi), app.getUser(),
-                mContext);
-        if (entry.icon.equals(tmp)) {
-            return;
-        }
-        mCache.put(key, entry);
-
-        Bitmap lowResIcon = generateLowResIcon(entry.icon, mActivityBgColor);
-        ContentValues values = newContentValues(entry.icon, lowResIcon, entry.title.toString());
-        mIconDb.update(values, "componentName = ? AND profileID = ?", new String[]{app.getComponentName().flattenToString(), "" + userSerial});
-    }
-
     /**
      * Updates {@param values} to contain versoning information and adds it to the DB.
      *
@@ -397,34 +471,44 @@ public class IconCache {
      */
     private void addIconToDB(ContentValues values, ComponentName key,
                              PackageInfo info, long userSerial) {
+        addVersionInfo(values, key, info, userSerial);
+        invalidateAtlas(getAtlasKey(key.flattenToString(), userSerial));
+        mIconDb.insertOrReplace(values);
+    }
+
+    @Thunk
+    static void addVersionInfo(ContentValues values, ComponentName key,
+                               PackageInfo info, long userSerial) {
         values.put(IconDB.COLUMN_COMPONENT, key.flattenToString());
         values.put(IconDB.COLUMN_USER, userSerial);
         values.put(IconDB.COLUMN_LAST_UPDATED, info.lastUpdateTime);
         values.put(IconDB.COLUMN_VERSION, info.versionCode);
-        mIconDb.insertOrReplace(values);
     }
 
+    /**
+     * Renders the icon of {@param app} and puts it in the memory cache. This can be called from
+     * multiple threads in parallel.
+     */
     @Thunk
     ContentValues updateCacheAndGetContentValues(LauncherActivityInfoCompat app,
                                                  boolean replaceExisting) {
         final ComponentKey key = new ComponentKey(app.getComponentName(), app.getUser());
-        CacheEntry entry = null;
+        CacheEntry entry = new CacheEntry();
         if (!replaceExisting) {
-            entry = mCache.get(key);
+            CacheEntry existing = mCache.get(key);
             // We can't reuse the entry if the high-res icon is not present.
-            if (entry == null || entry.isLowResIcon || entry.icon == null) {
-                entry = null;
+            if (existing != null && !existing.isLowResIcon && existing.icon != null) {
+                entry.icon = existing.icon;
             }
         }
-        if (entry == null) {
-            entry = new CacheEntry();
+        if (entry.icon == null) {
             entry.icon = Utilities.createBadgedIconBitmap(
                     pip.getIcon(app, mIconDpi), app.getUser(),
                     mContext);
         }
         entry.title = app.getLabel();
         entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, app.getUser());
-        mCache.put(new ComponentKey(app.getComponentName(), app.getUser()), entry);
+        putEntry(key, entry);
 
         Bitmap lowResIcon = generateLowResIcon(entry.icon, mActivityBgColor);
         return newContentValues(entry.icon, lowResIcon, entry.title.toString()
@@ -473,14 +557,15 @@ public class IconCache {
     /**
      * Fill in "application" with the icon and label for "info."
      */
-    public synchronized void getTitleAndIcon(AppInfo application,
-                                             LauncherActivityInfoCompat info, boolean useLowResIcon) {
+    public void getTitleAndIcon(AppInfo application,
+                                LauncherActivityInfoCompat info, boolean useLowResIcon) {
         UserHandle user = info == null ? application.user : info.getUser();
         CacheEntry entry = cacheLocked(application.componentName, info, user,
                 false, useLowResIcon);
         application.originalTitle = Utilities.trim(entry.title);
         String key = "alias_" + application.componentName.flattenToString();
         application.title = Utilities.getPrefs(mContext).getString(key, application.originalTitle.toString());
+        AppSortKeys.getInstance(mContext).updateKeys(application);
         application.contentDescription = entry.contentDescription;
         application.iconBitmap = getNonNullIcon(entry, user);
         application.usingLowResIcon = entry.isLowResIcon;
@@ -489,13 +574,14 @@ public class IconCache {
     /**
      * Updates {@param application} only if a valid entry is found.
      */
-    public synchronized void updateTitleAndIcon(AppInfo application) {
+    public void updateTitleAndIcon(AppInfo application) {
         CacheEntry entry = cacheLocked(application.componentName, null, application.user,
                 false, application.usingLowResIcon);
         if (entry.icon != null && !isDefaultIcon(entry.icon, application.user)) {
             application.originalTitle = Utilities.trim(entry.title);
             String key = "alias_" + application.componentName.flattenToString();
             application.title = Utilities.getPrefs(mContext).getString(key, application.originalTitle.toString());
+            AppSortKeys.getInstance(mContext).updateKeys(application);
             application.contentDescription = entry.contentDescription;
             application.iconBitmap = entry.icon;
             application.usingLowResIcon = entry.isLowResIcon;
@@ -505,7 +591,7 @@ public class IconCache {
     /**
      * Returns a high res icon for the given intent and user
      */
-    public synchronized Bitmap getIcon(Intent intent, UserHandle user) {
+    public Bitmap getIcon(Intent intent, UserHandle user) {
         ComponentName component = intent.getComponent();
         // null info means not installed, but if we have a component from the intent then
         // we should still look in the cache for restored app icons.
@@ -522,8 +608,8 @@ public class IconCache {
      * Fill in {@param shortcutInfo} with the icon and label for {@param intent}. If the
      * corresponding activity is not found, it reverts to the package icon.
      */
-    public synchronized void getTitleAndIcon(ShortcutInfo shortcutInfo, Intent intent,
-                                             UserHandle user, boolean useLowResIcon) {
+    public void getTitleAndIcon(ShortcutInfo shortcutInfo, Intent intent,
+                                UserHandle user, boolean useLowResIcon) {
         ComponentName component = intent.getComponent();
         // null info means not installed, but if we have a component from the intent then
         // we should still look in the cache for restored app icons.
@@ -542,7 +628,7 @@ public class IconCache {
     /**
      * Fill in {@param shortcutInfo} with the icon and label for {@param info}
      */
-    public synchronized void getTitleAndIcon(
+    public void getTitleAndIcon(
             ShortcutInfo shortcutInfo, ComponentName component, LauncherActivityInfoCompat info,
             UserHandle user, boolean usePkgIcon, boolean useLowResIcon) {
         CacheEntry entry = cacheLocked(component, info, user, usePkgIcon, useLowResIcon);
@@ -559,7 +645,7 @@ public class IconCache {
     /**
      * Fill in {@param infoInOut} with the corresponding icon and label.
      */
-    public synchronized void getTitleAndIconForApp(
+    public void getTitleAndIconForApp(
             PackageItemInfo infoInOut, boolean useLowResIcon) {
         CacheEntry entry = getEntryForPackageLocked(
                 infoInOut.packageName, infoInOut.user, useLowResIcon);
@@ -569,28 +655,205 @@ public class IconCache {
         infoInOut.usingLowResIcon = entry.isLowResIcon;
     }
 
-    public synchronized Bitmap getDefaultIcon(UserHandle user) {
-        if (!mDefaultIcons.containsKey(user)) {
-            mDefaultIcons.put(user, makeDefaultIcon(user));
+    public Bitmap getDefaultIcon(UserHandle user) {
+        Bitmap icon = mDefaultIcons.get(user);
+        if (icon == null) {
+            // Only keep the first icon, so that isDefaultIcon works for all callers.
+            Bitmap newIcon = makeDefaultIcon(user);
+            icon = mDefaultIcons.putIfAbsent(user, newIcon);
+            if (icon == null) {
+                icon = newIcon;
+            }
         }
-        return mDefaultIcons.get(user);
+        return icon;
     }
 
     public boolean isDefaultIcon(Bitmap icon, UserHandle user) {
         return mDefaultIcons.get(user) == icon;
     }
 
+    private CacheEntry onCacheHit(CacheEntry entry) {
+        mHitCount.incrementAndGet();
+        long now = SystemClock.uptimeMillis();
+        // Most hits of a frame share the same time, don't write the entry again for them
+        if (entry.lastAccess != now) {
+            entry.lastAccess = now;
+        }
+        return entry;
+    }
+
+    private long getEntrySize(CacheEntry entry) {
+        // Default icons are shared by many entries, and are never evicted.
+        return entry.icon == null || mDefaultIcons.containsValue(entry.icon)
+                ? 0 : entry.icon.getByteCount();
+    }
+
+    /**
+     * Adds the entry to the memory cache, and schedules a trim if the cache grows over its
+     * budget.
+     */
+    private void putEntry(ComponentKey key, CacheEntry entry) {
+        entry.lastAccess = SystemClock.uptimeMillis();
+        CacheEntry old = mCache.put(key, entry);
+        long size = mCacheBytes.addAndGet(getEntrySize(entry)
+                - (old == null ? 0 : getEntrySize(old)));
+        if (size > mMaxCacheBytes && mTrimScheduled.compareAndSet(false, true)) {
+            mWorkerHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mTrimScheduled.set(false);
+                    trimToSize((long) (mMaxCacheBytes * TRIM_TARGET_FRACTION), true);
+                }
+            });
+        }
+    }
+
+    private void removeEntry(ComponentKey key) {
+        CacheEntry old = mCache.remove(key);
+        if (old != null) {
+            mCacheBytes.addAndGet(-getEntrySize(old));
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries, by their access time, until the memory cache uses
+     * at most {@param targetBytes}. If {@param removeEntries} is set, the entries are removed so
+     * that they are reloaded from the DB on the next access, otherwise full-res icons are replaced
+     * by their low-res version. The entries of packages being installed are always kept, as the
+     * DB can't restore them.
+     */
+    @Thunk
+    void trimToSize(long targetBytes, boolean removeEntries) {
+        if (mCacheBytes.get() <= targetBytes) {
+            return;
+        }
+        // The access times keep changing while sorting, so a snapshot of them is sorted
+        ArrayList<TrimCandidate> candidates = new ArrayList<>(mCache.size());
+        for (Map.Entry<ComponentKey, CacheEntry> e : mCache.entrySet()) {
+            CacheEntry entry = e.getValue();
+            if (!entry.isInstallInfo) {
+                candidates.add(new TrimCandidate(e.getKey(), entry));
+            }
+        }
+        Collections.sort(candidates);
+
+        for (TrimCandidate candidate : candidates) {
+            if (mCacheBytes.get() <= targetBytes) {
+                return;
+            }
+            ComponentKey key = candidate.key;
+            CacheEntry entry = candidate.entry;
+            long size = getEntrySize(entry);
+            if (size == 0) {
+                continue;
+            }
+            if (removeEntries) {
+                // Skip the entry if it was updated in the meantime.
+                if (mCache.remove(key, entry)) {
+                    mCacheBytes.addAndGet(-size);
+                    mEvictionCount.incrementAndGet();
+                }
+            } else if (!entry.isLowResIcon) {
+                CacheEntry lowRes = new CacheEntry();
+                lowRes.title = entry.title;
+                lowRes.contentDescription = entry.contentDescription;
+                lowRes.isLowResIcon = true;
+                lowRes.lastAccess = entry.lastAccess;
+                lowRes.icon = generateLowResIcon(entry.icon,
+                        key.componentName.getClassName().endsWith(EMPTY_CLASS_NAME)
+                                ? mPackageBgColor : mActivityBgColor);
+                if (mCache.replace(key, entry, lowRes)) {
+                    mCacheBytes.addAndGet(getEntrySize(lowRes) - size);
+                    mEvictionCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private static class TrimCandidate implements Comparable<TrimCandidate> {
+        final ComponentKey key;
+        final CacheEntry entry;
+        final long lastAccess;
+
+        TrimCandidate(ComponentKey key, CacheEntry entry) {
+            this.key = key;
+            this.entry = entry;
+            lastAccess = entry.lastAccess;
+        }
+
+        @Override
+        public int compareTo(TrimCandidate other) {
+            return Long.compare(lastAccess, other.lastAccess);
+        }
+    }
+
+    /**
+     * Releases memory based on the {@link ComponentCallbacks2} trim level.
+     */
+    public void onTrimMemory(int level) {
+        final long targetBytes;
+        final boolean removeEntries;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            // We are next to be killed, only keep what the DB can't restore.
+            targetBytes = 0;
+            removeEntries = true;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            targetBytes = 0;
+            removeEntries = false;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            targetBytes = mMaxCacheBytes / 2;
+            removeEntries = false;
+        } else {
+            return;
+        }
+        pip.onTrimMemory();
+        mWorkerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                trimToSize(targetBytes, removeEntries);
+            }
+        });
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        long hits = mHitCount.get();
+        long misses = mMissCount.get();
+        writer.println(prefix + "IconCache: entries=" + mCache.size()
+                + " bytes=" + mCacheBytes.get() + "/" + mMaxCacheBytes
+                + " hits=" + hits + " misses=" + misses
+                + " hitRate=" + (hits + misses == 0 ? 0 : hits * 100 / (hits + misses)) + "%"
+                + " evictions=" + mEvictionCount.get());
+    }
+
+    /**
+     * Returns the lock which guards loading the entry for {@param cacheKey}. Readers of existing
+     * entries never take a lock, and loading an entry only blocks loads which share its lock.
+     */
+    private Object getLoadLock(Object[] locks, ComponentKey cacheKey) {
+        return locks[(cacheKey.hashCode() & Integer.MAX_VALUE) % LOAD_LOCK_COUNT];
+    }
+
     /**
      * Retrieves the entry from the cache. If the entry is not present, it creates a new entry.
-     * This method is not thread safe, it must be called from a synchronized method.
+     * This method is thread safe, only the load lock of the entry is held while it is created.
      */
     private CacheEntry cacheLocked(ComponentName componentName, LauncherActivityInfoCompat info,
                                    UserHandle user, boolean usePackageIcon, boolean useLowResIcon) {
         ComponentKey cacheKey = new ComponentKey(componentName, user);
         CacheEntry entry = mCache.get(cacheKey);
-        if (entry == null || (entry.isLowResIcon && !useLowResIcon)) {
+        if (entry != null && !(entry.isLowResIcon && !useLowResIcon)) {
+            return onCacheHit(entry);
+        }
+        synchronized (getLoadLock(mComponentLoadLocks, cacheKey)) {
+            // The entry might have been loaded while we were waiting for the lock.
+            entry = mCache.get(cacheKey);
+            if (entry != null && !(entry.isLowResIcon && !useLowResIcon)) {
+                return onCacheHit(entry);
+            }
+            mMissCount.incrementAndGet();
             entry = new CacheEntry();
-            mCache.put(cacheKey, entry);
 
             // Check the DB first.
             if (!getEntryFromDB(cacheKey, entry, useLowResIcon)) {
@@ -618,6 +881,7 @@ public class IconCache {
                 entry.title = info.getLabel();
                 entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, user);
             }
+            putEntry(cacheKey, entry);
         }
         return entry;
     }
@@ -630,20 +894,17 @@ public class IconCache {
                                                      Bitmap icon, CharSequence title) {
         removeFromMemCacheLocked(packageName, user);
 
-        ComponentKey cacheKey = getPackageKey(packageName, user);
-        CacheEntry entry = mCache.get(cacheKey);
-
         // For icon caching, do not go through DB. Just update the in-memory entry.
-        if (entry == null) {
-            entry = new CacheEntry();
-            mCache.put(cacheKey, entry);
-        }
+        ComponentKey cacheKey = getPackageKey(packageName, user);
+        CacheEntry entry = new CacheEntry();
+        entry.isInstallInfo = true;
         if (!TextUtils.isEmpty(title)) {
             entry.title = title;
         }
         if (icon != null) {
             entry.icon = Utilities.createIconBitmap(icon, mContext);
         }
+        putEntry(cacheKey, entry);
     }
 
     private static ComponentKey getPackageKey(String packageName, UserHandle user) {
@@ -653,14 +914,23 @@ public class IconCache {
 
     /**
      * Gets an entry for the package, which can be used as a fallback entry for various components.
-     * This method is not thread safe, it must be called from a synchronized method.
+     * This method is thread safe, only the load lock of the entry is held while it is created.
      */
     private CacheEntry getEntryForPackageLocked(String packageName, UserHandle user,
                                                 boolean useLowResIcon) {
         ComponentKey cacheKey = getPackageKey(packageName, user);
         CacheEntry entry = mCache.get(cacheKey);
+        if (entry != null && !(entry.isLowResIcon && !useLowResIcon)) {
+            return onCacheHit(entry);
+        }
 
-        if (entry == null || (entry.isLowResIcon && !useLowResIcon)) {
+        synchronized (getLoadLock(mPackageLoadLocks, cacheKey)) {
+            // The entry might have been loaded while we were waiting for the lock.
+            entry = mCache.get(cacheKey);
+            if (entry != null && !(entry.isLowResIcon && !useLowResIcon)) {
+                return onCacheHit(entry);
+            }
+            mMissCount.incrementAndGet();
             entry = new CacheEntry();
             boolean entryUpdated = true;
 
@@ -699,19 +969,25 @@ public class IconCache {
 
             // Only add a filled-out entry to the cache
             if (entryUpdated) {
-                mCache.put(cacheKey, entry);
+                putEntry(cacheKey, entry);
             }
         }
         return entry;
     }
 
     private boolean getEntryFromDB(ComponentKey cacheKey, CacheEntry entry, boolean lowRes) {
+        if (lowRes && getEntryFromAtlas(cacheKey, entry)) {
+            return true;
+        }
         Cursor c = null;
         try {
             c = mIconDb.query(
                     new String[]{lowRes ? IconDB.COLUMN_ICON_LOW_RES : IconDB.COLUMN_ICON,
                             IconDB.COLUMN_LABEL},
-                    IconDB.COLUMN_COMPONENT + " = ? AND " + IconDB.COLUMN_USER + " = ?",
+                    // Skip the rows marked as stale by updateIconsForAll, which are still
+                    // waiting to be rendered again
+                    IconDB.COLUMN_COMPONENT + " = ? AND " + IconDB.COLUMN_USER + " = ? AND "
+                            + IconDB.COLUMN_SYSTEM_STATE + " != ''",
                     new String[]{cacheKey.componentName.flattenToString(),
                             Long.toString(mUserManager.getSerialNumberForUser(cacheKey.user))});
             if (c.moveToNext()) {
@@ -737,6 +1013,128 @@ public class IconCache {
         return false;
     }
 
+    /**
+     * @return the atlas key for a component, or for all the components of a package if
+     * {@param name} is a package name.
+     */
+    private static String getAtlasKey(String name, long userSerial) {
+        return name + "#" + userSerial;
+    }
+
+    private boolean getEntryFromAtlas(ComponentKey cacheKey, CacheEntry entry) {
+        long userSerial = mUserManager.getSerialNumberForUser(cacheKey.user);
+        String key = getAtlasKey(cacheKey.componentName.flattenToString(), userSerial);
+        IconAtlas atlas;
+        synchronized (mAtlasLock) {
+            atlas = getIconAtlasLocked();
+            if (atlas == null || mAtlasInvalidKeys.contains(key) || mAtlasInvalidKeys.contains(
+                    getAtlasKey(cacheKey.componentName.getPackageName(), userSerial))) {
+                return false;
+            }
+        }
+        IconAtlas.Entry atlasEntry = atlas.getEntry(key);
+        if (atlasEntry == null) {
+            return false;
+        }
+        entry.icon = atlas.getIcon(atlasEntry);
+        entry.isLowResIcon = true;
+        entry.title = atlasEntry.label;
+        entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, cacheKey.user);
+        return true;
+    }
+
+    private IconAtlas getIconAtlasLocked() {
+        if (!mAtlasLoaded) {
+            mAtlasLoaded = true;
+            mIconAtlas = IconAtlas.load(mAtlasFile, mAtlasVersion);
+        }
+        return mIconAtlas;
+    }
+
+    /**
+     * Marks the atlas entries for {@param key} as out of date, or the whole atlas if the key is
+     * null. The atlas file is deleted so that it is not used after a restart, but the mapped
+     * copy keeps serving the entries which are still valid until it is rebuilt.
+     */
+    private void invalidateAtlas(String key) {
+        synchronized (mAtlasLock) {
+            mAtlasWriteCount++;
+            if (key == null) {
+                mIconAtlas = null;
+                mAtlasLoaded = true;
+                mAtlasInvalidKeys.clear();
+                mAtlasFile.delete();
+            } else {
+                if (getIconAtlasLocked() != null && mAtlasInvalidKeys.isEmpty()) {
+                    mAtlasFile.delete();
+                }
+                mAtlasInvalidKeys.add(key);
+            }
+        }
+    }
+
+    @Thunk
+    void scheduleAtlasRebuild() {
+        mWorkerHandler.removeCallbacks(mRebuildAtlasRunnable);
+        mWorkerHandler.postDelayed(mRebuildAtlasRunnable, ATLAS_REBUILD_DELAY);
+    }
+
+    private final Runnable mRebuildAtlasRunnable = new Runnable() {
+        @Override
+        public void run() {
+            rebuildAtlas();
+        }
+    };
+
+    /**
+     * Writes all the low-res icons of the DB to a new atlas, if the current one is out of date.
+     */
+    @Thunk
+    void rebuildAtlas() {
+        int writeCount;
+        synchronized (mAtlasLock) {
+            if (getIconAtlasLocked() != null && mAtlasInvalidKeys.isEmpty()) {
+                return;
+            }
+            writeCount = mAtlasWriteCount;
+        }
+
+        IconAtlas.Writer writer = new IconAtlas.Writer();
+        Cursor c = null;
+        try {
+            c = mIconDb.query(new String[]{IconDB.COLUMN_COMPONENT, IconDB.COLUMN_USER,
+                    IconDB.COLUMN_ICON_LOW_RES, IconDB.COLUMN_LABEL}, null, null);
+            while (c.moveToNext()) {
+                Bitmap icon = loadIconNoResize(c, 2, mLowResOptions);
+                if (icon != null) {
+                    writer.add(getAtlasKey(c.getString(0), c.getLong(1)), c.getString(3), icon);
+                }
+            }
+        } catch (SQLiteException e) {
+            Log.d(TAG, "Error reading icon cache", e);
+            return;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+        if (!writer.write(mAtlasFile, mAtlasVersion)) {
+            return;
+        }
+
+        IconAtlas atlas = IconAtlas.load(mAtlasFile, mAtlasVersion);
+        synchronized (mAtlasLock) {
+            if (writeCount == mAtlasWriteCount) {
+                mIconAtlas = atlas;
+                mAtlasLoaded = true;
+                mAtlasInvalidKeys.clear();
+                return;
+            }
+        }
+        // The DB changed while the atlas was being written.
+        scheduleAtlasRebuild();
+    }
+
     public static class IconLoadRequest {
         private final Runnable mRunnable;
         private final Handler mHandler;
@@ -752,66 +1150,122 @@ public class IconCache {
     }
 
     /**
-     * A runnable that updates invalid icons and adds missing icons in the DB for the provided
-     * LauncherActivityInfoCompat list. Items are updated/added one at a time, so that the
-     * worker thread doesn't get blocked.
+     * Updates invalid icons and adds missing icons in the DB for the provided
+     * LauncherActivityInfoCompat lists. Icons are rendered in parallel on
+     * {@link Executors#THREAD_POOL_EXECUTOR} and written to the DB in batches on the worker
+     * thread, so that neither the worker thread nor the model gets blocked. The task stops as
+     * soon as {@link #cancelIconUpdates()} is called.
      */
     @Thunk
-    class SerializedIconUpdateTask implements Runnable {
+    class ParallelIconUpdateTask implements Runnable {
+        private final int mGeneration = mIconUpdateGeneration.get();
+        private final long mStartTime = SystemClock.uptimeMillis();
         private final long mUserSerial;
         private final HashMap<String, PackageInfo> mPkgInfoMap;
-        private final Stack<LauncherActivityInfoCompat> mAppsToAdd;
-        private final Stack<LauncherActivityInfoCompat> mAppsToUpdate;
-        private final HashSet<String> mUpdatedPackages = new HashSet<>();
+        private final List<LauncherActivityInfoCompat> mAppsToAdd;
+        private final List<LauncherActivityInfoCompat> mAppsToUpdate;
+        private final int mTotal;
+
+        private final AtomicInteger mRendered = new AtomicInteger();
+        private final ConcurrentLinkedQueue<ContentValues> mPendingWrites =
+                new ConcurrentLinkedQueue<>();
+        private final Set<String> mUpdatedPackages =
+                Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        // Only accessed on the worker thread.
+        private boolean mFinished;
 
         @Thunk
-        SerializedIconUpdateTask(long userSerial, HashMap<String, PackageInfo> pkgInfoMap,
-                                 Stack<LauncherActivityInfoCompat> appsToAdd,
-                                 Stack<LauncherActivityInfoCompat> appsToUpdate) {
+        ParallelIconUpdateTask(long userSerial, HashMap<String, PackageInfo> pkgInfoMap,
+                               List<LauncherActivityInfoCompat> appsToAdd,
+                               List<LauncherActivityInfoCompat> appsToUpdate) {
             mUserSerial = userSerial;
             mPkgInfoMap = pkgInfoMap;
             mAppsToAdd = appsToAdd;
             mAppsToUpdate = appsToUpdate;
+            mTotal = appsToAdd.size() + appsToUpdate.size();
         }
 
-        @Override
-        public void run() {
-            if (!mAppsToUpdate.isEmpty()) {
-                LauncherActivityInfoCompat app = mAppsToUpdate.pop();
-                String pkg = app.getComponentName().getPackageName();
-                PackageInfo info = mPkgInfoMap.get(pkg);
-                if (info != null) {
-                    synchronized (IconCache.this) {
-                        ContentValues values = updateCacheAndGetContentValues(app, true);
-                        addIconToDB(values, app.getComponentName(), info, mUserSerial);
-                    }
-                    mUpdatedPackages.add(pkg);
-                }
-                if (mAppsToUpdate.isEmpty() && !mUpdatedPackages.isEmpty()) {
-                    // No more app to update. Notify model.
-                    LauncherAppState.getInstance().getModel().onPackageIconsUpdated(
-                            mUpdatedPackages, mUserManager.getUserForSerialNumber(mUserSerial));
-                }
+        public void start() {
+            for (LauncherActivityInfoCompat app : mAppsToUpdate) {
+                scheduleRender(app, true);
+            }
+            for (LauncherActivityInfoCompat app : mAppsToAdd) {
+                scheduleRender(app, false);
+            }
+        }
 
-                // Let it run one more time.
-                scheduleNext();
-            } else if (!mAppsToAdd.isEmpty()) {
-                LauncherActivityInfoCompat app = mAppsToAdd.pop();
-                PackageInfo info = mPkgInfoMap.get(app.getComponentName().getPackageName());
-                if (info != null) {
-                    synchronized (IconCache.this) {
-                        addIconToDBAndMemCache(app, info, mUserSerial);
-                    }
+        private boolean isCancelled() {
+            return mGeneration != mIconUpdateGeneration.get();
+        }
+
+        private void scheduleRender(final LauncherActivityInfoCompat app,
+                                    final boolean replaceExisting) {
+            Executors.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    render(app, replaceExisting);
                 }
+            }, Executors.PRIORITY_LOW);
+        }
 
-                if (!mAppsToAdd.isEmpty()) {
-                    scheduleNext();
+        @Thunk
+        void render(LauncherActivityInfoCompat app, boolean replaceExisting) {
+            if (isCancelled()) {
+                return;
+            }
+            String pkg = app.getComponentName().getPackageName();
+            PackageInfo info = mPkgInfoMap.get(pkg);
+            if (info != null) {
+                ContentValues values = updateCacheAndGetContentValues(app, replaceExisting);
+                addVersionInfo(values, app.getComponentName(), info, mUserSerial);
+                invalidateAtlas(getAtlasKey(
+                        app.getComponentName().flattenToString(), mUserSerial));
+                mPendingWrites.add(values);
+                if (replaceExisting) {
+                    mUpdatedPackages.add(pkg);
                 }
             }
+
+            int rendered = mRendered.incrementAndGet();
+            if (rendered % ICON_UPDATE_BATCH_SIZE == 0 || rendered == mTotal) {
+                mWorkerHandler.postAtTime(this, ICON_UPDATE_TOKEN, SystemClock.uptimeMillis());
+            }
         }
 
-        public void scheduleNext() {
-            mWorkerHandler.postAtTime(this, ICON_UPDATE_TOKEN, SystemClock.uptimeMillis() + 1);
+        /**
+         * Writes all the rendered icons to the DB.
+         */
+        @Override
+        public void run() {
+            if (isCancelled()) {
+                return;
+            }
+            ArrayList<ContentValues> batch = new ArrayList<>(ICON_UPDATE_BATCH_SIZE);
+            ContentValues values;
+            while ((values = mPendingWrites.poll()) != null) {
+                batch.add(values);
+            }
+            mIconDb.insertOrReplace(batch);
+
+            if (mRendered.get() == mTotal && !mFinished) {
+                mFinished = true;
+                if (!mUpdatedPackages.isEmpty()) {
+                    // No more app to update. Notify model on its own thread.
+                    final HashSet<String> updatedPackages = new HashSet<>(mUpdatedPackages);
+                    final UserHandle user = mUserManager.getUserForSerialNumber(mUserSerial);
+                    Executors.MODEL_EXECUTOR.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            LauncherAppState.getInstance().getModel()
+                                    .onPackageIconsUpdated(updatedPackages, user);
+                        }
+                    });
+                }
+                Log.d(TAG, "Updated " + mTotal + " icons in "
+                        + (SystemClock.uptimeMillis() - mStartTime) + "ms");
+                scheduleAtlasRebuild();
+            }
         }
     }
 
@@ -832,9 +1286,11 @@ public class IconCache {
         private final static String COLUMN_SYSTEM_STATE = "system_state";
 
         public IconDB(Context context, int iconPixelSize) {
-            super(context, LauncherFiles.APP_ICONS_DB,
-                    (RELEASE_VERSION << 16) + iconPixelSize,
-                    TABLE_NAME);
+            super(context, LauncherFiles.APP_ICONS_DB, getVersion(iconPixelSize), TABLE_NAME);
+        }
+
+        static int getVersion(int iconPixelSize) {
+            return (RELEASE_VERSION << 16) + iconPixelSize;
         }
 
         @Override
@@ -875,14 +1331,13 @@ public class IconCache {
         } else {
             Bitmap lowResIcon = Bitmap.createBitmap(dstWidth,
                     dstHeight, Bitmap.Config.RGB_565);
-            synchronized (this) {
-                mLowResCanvas.setBitmap(lowResIcon);
-                mLowResCanvas.drawColor(lowResBackgroundColor);
-                mLowResCanvas.drawBitmap(icon, new Rect(0, 0, icon.getWidth(), icon.getHeight()),
-                        new Rect(0, 0, lowResIcon.getWidth(), lowResIcon.getHeight()),
-                        mLowResPaint);
-                mLowResCanvas.setBitmap(null);
-            }
+            Canvas canvas = sLowResCanvas.get();
+            canvas.setBitmap(lowResIcon);
+            canvas.drawColor(lowResBackgroundColor);
+            canvas.drawBitmap(icon, new Rect(0, 0, icon.getWidth(), icon.getHeight()),
+                    new Rect(0, 0, lowResIcon.getWidth(), lowResIcon.getHeight()),
+                    mLowResPaint);
+            canvas.setBitmap(null);
             return lowResIcon;
         }
     }
@@ -1,19 +1,37 @@
 package com.pixeldust.launcher;
 
 import android.content.Context;
+import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.util.ArrayMap;
+import android.util.DisplayMetrics;
+import android.util.LruCache;
 
-import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.pixeldust.launcher.compat.LauncherActivityInfoCompat;
 import com.pixeldust.launcher.pixelify.PixelIconProvider;
 
+/**
+ * An icon pack, filled by {@link IconPackProvider}. It can be used while the pack is still being
+ * parsed, the icons which are not parsed yet are masked.
+ * <p>
+ * The apps which aren't themed by the pack get their own icon masked with the iconback, iconmask
+ * and iconupon layers of the pack. The layers are decoded once, and the masked icons are cached
+ * by component, as each icon is drawn more than once while being created.
+ */
 public class IconPack {
     /*
     Useful Links:
@@ -21,65 +39,246 @@ public class IconPack {
     http://stackoverflow.com/questions/7205415/getting-resources-of-another-application
     http://stackoverflow.com/questions/3890012/how-to-access-string-resource-from-another-application
      */
-    private final String mIconBack;
-    private final String mIconUpon;
-    private final String mIconMask;
-    private final float mScale;
-    private final List<String> mCalendars;
-    private Map<String, IconPackProvider.IconInfo> icons = new ArrayMap<>();
-    private String packageName;
-    private Context mContext;
-
-    public IconPack(Map<String, IconPackProvider.IconInfo> icons, Context context, String packageName,
-                    String iconBack, String iconUpon, String iconMask, float scale, List<String> calendars) {
-        this.icons = icons;
+    private static final int MAX_MASKED_ICON_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_POOLED_CANVASES = 4;
+    private static final int DEFAULT_LAYER_SIZE = 192;
+
+    private static final Paint sLayerPaint =
+            new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
+    private static final Paint sMaskPaint =
+            new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
+    private static final Paint sBackPaint =
+            new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
+
+    static {
+        sMaskPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_OUT));
+        // The back is drawn last, behind the masked icon
+        sBackPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_OVER));
+    }
+
+    // Canvases used to compose the masked icons, shared by the threads creating icons
+    private static final ConcurrentLinkedQueue<Canvas> sCanvasPool = new ConcurrentLinkedQueue<>();
+
+    private volatile String mIconBack;
+    private volatile String mIconUpon;
+    private volatile String mIconMask;
+    private volatile float mScale = 1f;
+    private final List<String> mCalendars = new CopyOnWriteArrayList<>();
+    private final Map<String, IconPackProvider.IconInfo> icons = new ConcurrentHashMap<>();
+    private final String packageName;
+    private final Resources mResources;
+
+    private volatile Layers mLayers;
+    private final LruCache<String, Bitmap> mMaskedIcons =
+            new LruCache<String, Bitmap>(MAX_MASKED_ICON_BYTES) {
+                @Override
+                protected int sizeOf(String key, Bitmap value) {
+                    return value.getByteCount();
+                }
+            };
+    private final int mMaskedIconSize;
+
+    IconPack(Context context, String packageName) throws PackageManager.NameNotFoundException {
         this.packageName = packageName;
-        mContext = context;
-        mIconBack = iconBack;
-        mIconUpon = iconUpon;
-        mIconMask = iconMask;
-        mScale = scale;
-        mCalendars = calendars;
+        mResources = context.getPackageManager().getResourcesForApplication(packageName);
+        LauncherAppState app = LauncherAppState.getInstanceNoCreate();
+        mMaskedIconSize = app != null ? app.getInvariantDeviceProfile().iconBitmapSize : 0;
     }
 
     public Drawable getIcon(LauncherActivityInfoCompat info) {
         IconPackProvider.IconInfo iconInfo = icons.get(info.getComponentName().toString());
-        if (iconInfo != null && iconInfo.prefix != null) {
-            Drawable drawable = getDrawable(iconInfo.prefix + (PixelIconProvider.dayOfMonth() + 1));
+        if (iconInfo != null && iconInfo.calendarIds != null) {
+            Drawable drawable = getDrawable(iconInfo.calendarIds[PixelIconProvider.dayOfMonth()]);
             if (drawable != null) {
                 return drawable;
             }
         }
-        if (iconInfo != null && iconInfo.drawable != null)
-            return getDrawable(iconInfo.drawable);
+        if (iconInfo != null && iconInfo.drawableId != 0)
+            return getDrawable(iconInfo.drawableId);
         if (mIconBack != null || mIconUpon != null || mIconMask != null)
             return getMaskedDrawable(info);
         return null;
     }
 
     private Drawable getMaskedDrawable(LauncherActivityInfoCompat info) {
+        return new CustomIconDrawable(this, info);
+    }
+
+    /**
+     * @return the icon of {@param info} masked with the layers of the pack, at least {@param size}
+     * pixels wide. The icons are composed and cached at the size of the launcher icons, or at a
+     * power of two multiple of it for larger draws, so they are never upscaled.
+     */
+    Bitmap getMaskedIcon(LauncherActivityInfoCompat info, int size) {
+        if (size <= 0) {
+            return null;
+        }
+        size = getSizeBucket(size);
+        String key = info.getComponentName().flattenToString() + "@" + size;
+        Bitmap icon = mMaskedIcons.get(key);
+        if (icon != null) {
+            return icon;
+        }
+
+        Drawable originalIcon = info.getIcon(DisplayMetrics.DENSITY_XXXHIGH);
+        if (originalIcon == null) {
+            return null;
+        }
+        Layers layers = getLayers();
+        icon = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = sCanvasPool.poll();
+        if (canvas == null) {
+            canvas = new Canvas();
+        }
+        canvas.setBitmap(icon);
+
+        int padding = (int) ((size - size * mScale) / 2);
+        originalIcon.setBounds(padding, padding, size - padding, size - padding);
+        originalIcon.draw(canvas);
+
+        Rect bounds = new Rect(0, 0, size, size);
+        if (layers.mask != null) {
+            canvas.drawBitmap(layers.mask, null, bounds, sMaskPaint);
+        }
+        if (layers.back != null) {
+            canvas.drawBitmap(layers.back, null, bounds, sBackPaint);
+        }
+        if (layers.upon != null) {
+            canvas.drawBitmap(layers.upon, null, bounds, sLayerPaint);
+        }
+
+        canvas.setBitmap(null);
+        if (sCanvasPool.size() < MAX_POOLED_CANVASES) {
+            sCanvasPool.offer(canvas);
+        }
+        mMaskedIcons.put(key, icon);
+        return icon;
+    }
+
+    private int getSizeBucket(int size) {
+        if (mMaskedIconSize <= 0) {
+            return size;
+        }
+        int bucket = mMaskedIconSize;
+        while (bucket < size) {
+            bucket *= 2;
+        }
+        return bucket;
+    }
+
+    /**
+     * Forgets the masked icons of {@param packageName}, eg. after it was updated.
+     */
+    public void removeMaskedIcons(String packageName) {
+        String prefix = packageName + "/";
+        for (String key : mMaskedIcons.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                mMaskedIcons.remove(key);
+            }
+        }
+    }
+
+    public void trimMemory() {
+        mMaskedIcons.evictAll();
+    }
+
+    private Layers getLayers() {
+        Layers layers = mLayers;
+        if (layers == null) {
+            synchronized (this) {
+                layers = mLayers;
+                if (layers == null) {
+                    layers = new Layers();
+                    layers.back = decodeLayer(mIconBack);
+                    layers.upon = decodeLayer(mIconUpon);
+                    layers.mask = decodeLayer(mIconMask);
+                    mLayers = layers;
+                }
+            }
+        }
+        return layers;
+    }
+
+    private Bitmap decodeLayer(String name) {
+        if (name == null) {
+            return null;
+        }
+        int resourceId = mResources.getIdentifier(name, "drawable", packageName);
+        if (0 == resourceId) {
+            return null;
+        }
         try {
-            return new CustomIconDrawable(mContext, this, info);
+            Drawable drawable = mResources.getDrawable(resourceId);
+            if (drawable instanceof BitmapDrawable) {
+                return ((BitmapDrawable) drawable).getBitmap();
+            }
+            int width = drawable.getIntrinsicWidth();
+            int height = drawable.getIntrinsicHeight();
+            if (width <= 0 || height <= 0) {
+                width = height = mMaskedIconSize > 0 ? mMaskedIconSize : DEFAULT_LAYER_SIZE;
+            }
+            Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            drawable.setBounds(0, 0, width, height);
+            drawable.draw(new Canvas(bitmap));
+            return bitmap;
         } catch (Exception e) {
-            e.printStackTrace();
             return null;
         }
     }
 
-    private Drawable getDrawable(String name) {
-        Resources res;
-        try {
-            res = mContext.getPackageManager().getResourcesForApplication(packageName);
-            int resourceId = res.getIdentifier(name, "drawable", packageName);
-            if (0 != resourceId) {
-                Bitmap b = BitmapFactory.decodeResource(res, resourceId);
-                return new FastBitmapDrawable(b);
+    /**
+     * Called when the layers are changed while the pack is being parsed.
+     */
+    private void invalidateLayers() {
+        mLayers = null;
+        mMaskedIcons.evictAll();
+    }
+
+    private Drawable getDrawable(int resourceId) {
+        if (0 != resourceId) {
+            try {
+                Bitmap b = BitmapFactory.decodeResource(mResources, resourceId);
+                if (b != null) {
+                    return new FastBitmapDrawable(b);
+                }
+            } catch (Exception ignored) {
             }
-        } catch (Exception ignored) {
         }
         return null;
     }
 
+    void putIcon(String component, IconPackProvider.IconInfo iconInfo) {
+        icons.put(component, iconInfo);
+    }
+
+    Map<String, IconPackProvider.IconInfo> getIcons() {
+        return icons;
+    }
+
+    void setIconBack(String iconBack) {
+        mIconBack = iconBack;
+        invalidateLayers();
+    }
+
+    void setIconUpon(String iconUpon) {
+        mIconUpon = iconUpon;
+        invalidateLayers();
+    }
+
+    void setIconMask(String iconMask) {
+        mIconMask = iconMask;
+        invalidateLayers();
+    }
+
+    void setScale(float scale) {
+        mScale = scale;
+        invalidateLayers();
+    }
+
+    void addCalendar(String calendar) {
+        mCalendars.add(calendar);
+    }
+
     public String getPackageName() {
         return packageName;
     }
@@ -103,4 +302,13 @@ public class IconPack {
     public List<String> getCalendars() {
         return mCalendars;
     }
+
+    /**
+     * The layers of the pack, decoded once.
+     */
+    private static class Layers {
+        Bitmap back;
+        Bitmap upon;
+        Bitmap mask;
+    }
 }
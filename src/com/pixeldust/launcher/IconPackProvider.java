@@ -2,26 +2,58 @@ package com.pixeldust.launcher;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.UserHandle;
 import android.util.ArrayMap;
+import android.util.Log;
 import android.widget.Toast;
 import org.xmlpull.v1.XmlPullParser;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 
+import com.pixeldust.launcher.compat.UserManagerCompat;
+import com.pixeldust.launcher.util.Executors;
+import com.pixeldust.launcher.util.Thunk;
+
+/**
+ * Loads the icon packs, keeping their parsed appfilter in memory and in an index file.
+ * <p>
+ * The index holds the resource ids of the pack's drawables, so it is only valid for the version
+ * of the pack it was built from. Without a valid index, the appfilter is parsed in the
+ * background: the icons are added to the pack as they are parsed, and the icons are reloaded
+ * once the whole pack is known. Loading another pack cancels the parse.
+ */
 public class IconPackProvider {
-    private static Map<String, IconPack> iconPacks = new ArrayMap<>();
+    private static final String TAG = "IconPackProvider";
+
+    private static final String INDEX_FOLDER = "iconpack_index";
+    private static final int INDEX_MAGIC = 0x49504b58;
+    private static final int INDEX_VERSION = 1;
+
+    private static final int DAYS_IN_MONTH = 31;
+
+    private static final Map<String, IconPack> iconPacks = new ArrayMap<>();
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private static ParseTask sParseTask;
 
-    private static IconPack getIconPack(String packageName) {
+    private static synchronized IconPack getIconPack(String packageName) {
         return iconPacks.get(packageName);
     }
 
-    public static IconPack loadAndGetIconPack(Context context) {
+    public static synchronized IconPack loadAndGetIconPack(Context context) {
         SharedPreferences prefs = Utilities.getPrefs(context);
         String packageName = prefs.getString("pref_iconPackPackage", "");
         if ("".equals(packageName)) {
@@ -33,20 +65,46 @@ public class IconPackProvider {
         return getIconPack(packageName);
     }
 
-    public static void loadIconPack(Context context, String packageName) {
+    public static synchronized void loadIconPack(Context context, String packageName) {
+        if (sParseTask != null) {
+            // The pack being parsed is incomplete, it has to be parsed again next time
+            sParseTask.cancel();
+            iconPacks.remove(sParseTask.mPackageName);
+            sParseTask = null;
+        }
         if ("".equals(packageName)) {
             iconPacks.put("", null);
+            return;
         }
         clearCache(context, packageName);
-        Map<String, String> appFilter;
         try {
-            iconPacks.put(packageName, parseAppFilter(context, packageName));
+            PackageInfo info = context.getPackageManager().getPackageInfo(packageName, 0);
+            File indexFile = getIndexFile(context, packageName);
+            IconPack iconPack = readIndex(context, indexFile, info);
+            if (iconPack == null) {
+                iconPack = new IconPack(context, packageName);
+                sParseTask = new ParseTask(context.getApplicationContext(), iconPack, info,
+                        indexFile);
+                Executors.ICON_PACK_EXECUTOR.execute(sParseTask);
+            }
+            iconPacks.put(packageName, iconPack);
         } catch (Exception e) {
             Toast.makeText(context, "Invalid IconPack", Toast.LENGTH_SHORT).show();
             iconPacks.put(packageName, null);
         }
     }
 
+    @Thunk
+    static synchronized void onParseFinished(ParseTask task, boolean success) {
+        if (sParseTask != task) {
+            return;
+        }
+        sParseTask = null;
+        if (!success) {
+            iconPacks.put(task.mPackageName, null);
+        }
+    }
+
     private static void clearCache(Context context, String packageName) {
         File cacheFolder = new File(context.getCacheDir(), "iconpack");
         File indicatorFile = new File(cacheFolder, packageName);
@@ -65,66 +123,268 @@ public class IconPackProvider {
         }
     }
 
-    private static IconPack parseAppFilter(Context context, String packageName) throws Exception {
-        XmlPullParser parser = getAppFilter(context, packageName);
-        float scale = 1f;
-        String iconBack = null;
-        String iconUpon = null;
-        String iconMask = null;
-        Map<String, IconInfo> entries = new ArrayMap<>();
-        List<String> calendars = new ArrayList<>();
-        while (parser != null && parser.next() != XmlPullParser.END_DOCUMENT) {
-            if (parser.getEventType() != XmlPullParser.START_TAG) {
-                continue;
-            }
-            String name = parser.getName();
+    private static File getIndexFile(Context context, String packageName) {
+        return new File(new File(context.getCacheDir(), INDEX_FOLDER), packageName);
+    }
+
+    /**
+     * @return the pack stored in {@param indexFile}, or null if there is none for this version of
+     * the pack.
+     */
+    private static IconPack readIndex(Context context, File indexFile, PackageInfo info)
+            throws PackageManager.NameNotFoundException {
+        if (!indexFile.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION
+                    || in.readInt() != info.versionCode
+                    || in.readLong() != info.lastUpdateTime) {
+                return null;
+            }
+            IconPack iconPack = new IconPack(context, info.packageName);
+            iconPack.setScale(in.readFloat());
+            iconPack.setIconBack(readNullableString(in));
+            iconPack.setIconUpon(readNullableString(in));
+            iconPack.setIconMask(readNullableString(in));
+            for (int i = in.readInt(); i > 0; i--) {
+                iconPack.addCalendar(in.readUTF());
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                String comp = in.readUTF();
+                IconInfo iconInfo = new IconInfo();
+                iconInfo.drawableId = in.readInt();
+                if (in.readBoolean()) {
+                    iconInfo.calendarIds = new int[DAYS_IN_MONTH];
+                    for (int day = 0; day < DAYS_IN_MONTH; day++) {
+                        iconInfo.calendarIds[day] = in.readInt();
+                    }
+                }
+                iconPack.putIcon(comp, iconInfo);
+            }
+            return iconPack;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read the index of " + info.packageName, e);
+            indexFile.delete();
+            return null;
+        }
+    }
+
+    @Thunk
+    static void writeIndex(File indexFile, IconPack iconPack, PackageInfo info) {
+        File folder = indexFile.getParentFile();
+        if (!folder.exists() && !folder.mkdirs()) {
+            return;
+        }
+        // Only keep the index of the current pack
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        File tmpFile = new File(folder, indexFile.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(info.versionCode);
+            out.writeLong(info.lastUpdateTime);
+            out.writeFloat(iconPack.getScale());
+            writeNullableString(out, iconPack.getIconBack());
+            writeNullableString(out, iconPack.getIconUpon());
+            writeNullableString(out, iconPack.getIconMask());
+            out.writeInt(iconPack.getCalendars().size());
+            for (String calendar : iconPack.getCalendars()) {
+                out.writeUTF(calendar);
+            }
+            Map<String, IconInfo> icons = iconPack.getIcons();
+            out.writeInt(icons.size());
+            for (Map.Entry<String, IconInfo> entry : icons.entrySet()) {
+                IconInfo iconInfo = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(iconInfo.drawableId);
+                out.writeBoolean(iconInfo.calendarIds != null);
+                if (iconInfo.calendarIds != null) {
+                    for (int id : iconInfo.calendarIds) {
+                        out.writeInt(id);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write the index of " + info.packageName, e);
+            tmpFile.delete();
+            return;
+        }
+        if (!tmpFile.renameTo(indexFile)) {
+            tmpFile.delete();
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    /**
+     * Parses the appfilter of a pack into {@link #mIconPack}, resolving the resource ids of its
+     * drawables, and writes the index once done.
+     */
+    private static class ParseTask implements Runnable {
+
+        private final Context mContext;
+        @Thunk final IconPack mIconPack;
+        @Thunk final String mPackageName;
+        private final PackageInfo mInfo;
+        private final File mIndexFile;
+
+        private volatile boolean mCancelled;
+
+        ParseTask(Context context, IconPack iconPack, PackageInfo info, File indexFile) {
+            mContext = context;
+            mIconPack = iconPack;
+            mPackageName = info.packageName;
+            mInfo = info;
+            mIndexFile = indexFile;
+        }
+
+        void cancel() {
+            mCancelled = true;
+        }
+
+        @Override
+        public void run() {
+            boolean success;
             try {
-                if (name.equals("item")) {
-                    String comp = parser.getAttributeValue(null, "component");
-                    String drawable = parser.getAttributeValue(null, "drawable");
-                    if (drawable != null && comp != null) {
-                        IconInfo iconInfo;
-                        if (!entries.containsKey(comp)) {
-                            iconInfo = new IconInfo();
-                            entries.put(comp, iconInfo);
-                        } else {
-                            iconInfo = entries.get(comp);
-                        }
-                        iconInfo.drawable = drawable;
+                success = parseAppFilter();
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to parse " + mPackageName, e);
+                success = false;
+            }
+            if (mCancelled) {
+                return;
+            }
+            if (success) {
+                writeIndex(mIndexFile, mIconPack, mInfo);
+            }
+            final boolean loaded = success;
+            sMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onParseFinished(ParseTask.this, loaded);
+                    if (mCancelled) {
+                        return;
+                    }
+                    if (!loaded) {
+                        Toast.makeText(mContext, "Invalid IconPack", Toast.LENGTH_SHORT).show();
                     }
-                } else if (name.equals("iconback")) {
-                    iconBack = getImg(parser);
-                } else if (name.equals("iconupon")) {
-                    iconUpon = getImg(parser);
-                } else if (name.equals("iconmask")) {
-                    iconMask = getImg(parser);
-                } else if (name.equals("scale")) {
-                    scale = Float.parseFloat(parser.getAttributeValue(null, "factor"));
-                } else if (name.equals("calendar")) {
-                    String comp = parser.getAttributeValue(null, "component");
-                    String prefix = parser.getAttributeValue(null, "prefix");
-                    if (prefix != null && comp != null) {
-                        IconInfo iconInfo;
-                        if (!entries.containsKey(comp)) {
-                            iconInfo = new IconInfo();
-                            entries.put(comp, iconInfo);
-                        } else {
-                            iconInfo = entries.get(comp);
+                    reloadIcons();
+                }
+            });
+        }
+
+        @Thunk
+        void reloadIcons() {
+            LauncherAppState app = LauncherAppState.getInstanceNoCreate();
+            if (app == null) {
+                return;
+            }
+            // The icons rendered while parsing only used the part of the pack parsed so far.
+            // They are evicted from the icon cache, so that the reload renders them again.
+            app.getIconCache().pip.updateIconPack();
+            for (UserHandle user : UserManagerCompat.getInstance(mContext).getUserProfiles()) {
+                app.getIconCache().updateIconsForAll(user);
+            }
+            app.reloadAll(false);
+        }
+
+        /**
+         * @return false if the pack has no appfilter, or the parse was cancelled.
+         */
+        private boolean parseAppFilter() throws Exception {
+            Resources res = mContext.getPackageManager().getResourcesForApplication(mPackageName);
+            XmlPullParser parser = getAppFilter(mContext, res, mPackageName);
+            if (parser == null) {
+                return false;
+            }
+            while (parser.next() != XmlPullParser.END_DOCUMENT) {
+                if (mCancelled) {
+                    return false;
+                }
+                if (parser.getEventType() != XmlPullParser.START_TAG) {
+                    continue;
+                }
+                String name = parser.getName();
+                try {
+                    if (name.equals("item")) {
+                        String comp = parser.getAttributeValue(null, "component");
+                        String drawable = parser.getAttributeValue(null, "drawable");
+                        if (drawable != null && comp != null) {
+                            int drawableId = getDrawableId(res, drawable);
+                            if (drawableId != 0) {
+                                IconInfo iconInfo = copyIconInfo(comp);
+                                iconInfo.drawableId = drawableId;
+                                mIconPack.putIcon(comp, iconInfo);
+                            }
                         }
-                        iconInfo.prefix = prefix;
-                        try {
-                            String calendar = comp.split("/")[0].split("\\{")[1];
-                            calendars.add(calendar);
-                        } catch (Exception ignored) {
+                    } else if (name.equals("iconback")) {
+                        mIconPack.setIconBack(getImg(parser));
+                    } else if (name.equals("iconupon")) {
+                        mIconPack.setIconUpon(getImg(parser));
+                    } else if (name.equals("iconmask")) {
+                        mIconPack.setIconMask(getImg(parser));
+                    } else if (name.equals("scale")) {
+                        mIconPack.setScale(
+                                Float.parseFloat(parser.getAttributeValue(null, "factor")));
+                    } else if (name.equals("calendar")) {
+                        String comp = parser.getAttributeValue(null, "component");
+                        String prefix = parser.getAttributeValue(null, "prefix");
+                        if (prefix != null && comp != null) {
+                            IconInfo iconInfo = copyIconInfo(comp);
+                            iconInfo.calendarIds = new int[DAYS_IN_MONTH];
+                            for (int day = 0; day < DAYS_IN_MONTH; day++) {
+                                iconInfo.calendarIds[day] = getDrawableId(res, prefix + (day + 1));
+                            }
+                            mIconPack.putIcon(comp, iconInfo);
+                            try {
+                                String calendar = comp.split("/")[0].split("\\{")[1];
+                                mIconPack.addCalendar(calendar);
+                            } catch (Exception ignored) {
 
+                            }
                         }
                     }
+                } catch (Exception ignored) {
+
                 }
-            } catch (Exception ignored) {
+            }
+            return true;
+        }
 
+        /**
+         * The entries are read while being parsed, so they are replaced instead of modified.
+         */
+        private IconInfo copyIconInfo(String comp) {
+            IconInfo iconInfo = new IconInfo();
+            IconInfo old = mIconPack.getIcons().get(comp);
+            if (old != null) {
+                iconInfo.drawableId = old.drawableId;
+                iconInfo.calendarIds = old.calendarIds;
             }
+            return iconInfo;
+        }
+
+        private int getDrawableId(Resources res, String name) {
+            return res.getIdentifier(name, "drawable", mPackageName);
         }
-        return new IconPack(entries, context, packageName, iconBack, iconUpon, iconMask, scale, calendars);
     }
 
     private static String getImg(XmlPullParser parser) {
@@ -140,23 +400,19 @@ public class IconPackProvider {
         return img;
     }
 
-    private static XmlPullParser getAppFilter(Context context, String packageName) {
-        Resources res;
-        try {
-            res = context.getPackageManager().getResourcesForApplication(packageName);
-            int resourceId = res.getIdentifier("appfilter", "xml", packageName);
-            if (0 != resourceId) {
-                return context.getPackageManager().getXml(packageName, resourceId, null);
-            }
-        } catch (PackageManager.NameNotFoundException e) {
-            Toast.makeText(context, "Failed to get AppFilter", Toast.LENGTH_SHORT).show();
+    private static XmlPullParser getAppFilter(Context context, Resources res, String packageName) {
+        int resourceId = res.getIdentifier("appfilter", "xml", packageName);
+        if (0 != resourceId) {
+            return context.getPackageManager().getXml(packageName, resourceId, null);
         }
         return null;
     }
 
     public static class IconInfo {
 
-        public String drawable = null;
-        public String prefix = null;
+        // Resource id of the icon in the pack, or 0
+        public int drawableId = 0;
+        // Resource ids of the icons of a calendar for each day of the month, or null
+        public int[] calendarIds = null;
     }
 }
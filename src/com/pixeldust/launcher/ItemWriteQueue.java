@@ -0,0 +1,205 @@
+package com.pixeldust.launcher;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Process;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind queue for the launcher database, used by {@link LauncherModel} for the item writes
+ * caused by the user, like drags and folder changes.
+ * <p>
+ * The writes are kept in order, and committed together in a single {@link ContentResolver#applyBatch}
+ * transaction once no other write was queued for {@link #BATCH_WINDOW_MS}. Updates to an item which
+ * is already pending are merged into the pending insert or update of that item, so dragging an
+ * item around writes it only once.
+ * <p>
+ * The queue must only be used from the worker thread. The in-memory model is updated by the caller
+ * when the write is queued, anything reading the database directly must call {@link #flush} first.
+ */
+class ItemWriteQueue implements Runnable {
+
+    private static final String TAG = "ItemWriteQueue";
+
+    static final long BATCH_WINDOW_MS = 100;
+
+    private final Handler mWorker;
+
+    private final ArrayList<PendingOp> mPendingOps = new ArrayList<>();
+    // Pending insert or update of an item, which later updates of the same item are merged into
+    private final LongSparseArray<PendingOp> mPendingItems = new LongSparseArray<>();
+
+    private ContentResolver mResolver;
+
+    // Read from dump on the main thread
+    private final AtomicLong mRequestedWrites = new AtomicLong();
+    private final AtomicLong mMergedWrites = new AtomicLong();
+    private final AtomicLong mTransactions = new AtomicLong();
+
+    ItemWriteQueue(Handler worker) {
+        mWorker = worker;
+    }
+
+    void insertItem(Context context, long itemId, ContentValues values) {
+        PendingOp op = new PendingOp(PendingOp.INSERT, itemId, values);
+        enqueue(context, op);
+        mPendingItems.put(itemId, op);
+    }
+
+    void updateItem(Context context, long itemId, ContentValues values) {
+        PendingOp pending = mPendingItems.get(itemId);
+        if (pending != null) {
+            pending.values.putAll(values);
+            mRequestedWrites.incrementAndGet();
+            mMergedWrites.incrementAndGet();
+            return;
+        }
+        PendingOp op = new PendingOp(PendingOp.UPDATE, itemId, new ContentValues(values));
+        enqueue(context, op);
+        mPendingItems.put(itemId, op);
+    }
+
+    void deleteItem(Context context, long itemId) {
+        PendingOp pending = mPendingItems.get(itemId);
+        if (pending != null) {
+            mPendingItems.remove(itemId);
+            if (pending.type == PendingOp.UPDATE) {
+                // The row is going away, the update doesn't need to be written
+                mPendingOps.remove(pending);
+                mMergedWrites.incrementAndGet();
+            }
+        }
+        enqueue(context, new PendingOp(PendingOp.DELETE, itemId, null));
+    }
+
+    /**
+     * Queues an operation which is not tied to a single item, like a bulk delete. It is committed
+     * in order with the item writes, but never merged.
+     */
+    void enqueue(Context context, ContentProviderOperation operation) {
+        PendingOp op = new PendingOp(PendingOp.RAW, 0, null);
+        op.operation = operation;
+        enqueue(context, op);
+        // The operation may touch any pending item
+        mPendingItems.clear();
+    }
+
+    private void enqueue(Context context, PendingOp op) {
+        checkWorkerThread();
+        if (mResolver == null) {
+            mResolver = context.getContentResolver();
+        }
+        mRequestedWrites.incrementAndGet();
+        mPendingOps.add(op);
+        mWorker.removeCallbacks(this);
+        mWorker.postDelayed(this, BATCH_WINDOW_MS);
+    }
+
+    @Override
+    public void run() {
+        flush();
+    }
+
+    /**
+     * Commits all the pending writes now.
+     */
+    void flush() {
+        checkWorkerThread();
+        mWorker.removeCallbacks(this);
+        mPendingItems.clear();
+        if (mPendingOps.isEmpty()) {
+            return;
+        }
+        ArrayList<ContentProviderOperation> ops = new ArrayList<>(mPendingOps.size());
+        for (PendingOp op : mPendingOps) {
+            ops.add(op.build());
+        }
+        mPendingOps.clear();
+
+        mTransactions.incrementAndGet();
+        try {
+            mResolver.applyBatch(LauncherProvider.AUTHORITY, ops);
+        } catch (Exception e) {
+            // The transaction was rolled back, write what can be written so that a single bad
+            // operation doesn't lose the others.
+            Log.e(TAG, "Failed to commit " + ops.size() + " writes, retrying one by one", e);
+            for (ContentProviderOperation op : ops) {
+                mTransactions.incrementAndGet();
+                try {
+                    mResolver.applyBatch(LauncherProvider.AUTHORITY,
+                            new ArrayList<>(Collections.singletonList(op)));
+                } catch (Exception e2) {
+                    Log.e(TAG, "Failed to write " + op, e2);
+                }
+            }
+        }
+    }
+
+    /**
+     * Posts a flush of the pending writes, for when the launcher is about to go away.
+     */
+    void flushAsync() {
+        mWorker.removeCallbacks(this);
+        mWorker.post(this);
+    }
+
+    void dump(String prefix, PrintWriter writer) {
+        long requested = mRequestedWrites.get();
+        long transactions = mTransactions.get();
+        writer.println(prefix + "ItemWriteQueue: writes=" + requested + " merged="
+                + mMergedWrites.get() + " transactions=" + transactions + " saved="
+                + Math.max(0, requested - transactions));
+    }
+
+    private void checkWorkerThread() {
+        if (mWorker.getLooper().getThread() != Thread.currentThread()) {
+            throw new IllegalStateException("ItemWriteQueue used off the worker thread, tid="
+                    + Process.myTid());
+        }
+    }
+
+    private static class PendingOp {
+        static final int INSERT = 0;
+        static final int UPDATE = 1;
+        static final int DELETE = 2;
+        static final int RAW = 3;
+
+        final int type;
+        final long itemId;
+        final ContentValues values;
+        ContentProviderOperation operation;
+
+        PendingOp(int type, long itemId, ContentValues values) {
+            this.type = type;
+            this.itemId = itemId;
+            this.values = values;
+        }
+
+        ContentProviderOperation build() {
+            switch (type) {
+                case INSERT:
+                    return ContentProviderOperation
+                            .newInsert(LauncherSettings.Favorites.CONTENT_URI)
+                            .withValues(values).build();
+                case UPDATE:
+                    return ContentProviderOperation
+                            .newUpdate(LauncherSettings.Favorites.getContentUri(itemId))
+                            .withValues(values).build();
+                case DELETE:
+                    return ContentProviderOperation
+                            .newDelete(LauncherSettings.Favorites.getContentUri(itemId)).build();
+                default:
+                    return operation;
+            }
+        }
+    }
+}
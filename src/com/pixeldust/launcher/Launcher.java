@@ -79,6 +79,8 @@ import android.widget.Toast;
 
 import com.google.android.libraries.launcherclient.LauncherClient;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -115,6 +117,7 @@ import com.pixeldust.launcher.shortcuts.DeepShortcutManager;
 import com.pixeldust.launcher.shortcuts.ShortcutKey;
 import com.pixeldust.launcher.shortcuts.ShortcutsItemView;
 import com.pixeldust.launcher.util.ActivityResultInfo;
+import com.pixeldust.launcher.util.BitmapPool;
 import com.pixeldust.launcher.util.ComponentKey;
 import com.pixeldust.launcher.util.ItemInfoMatcher;
 import com.pixeldust.launcher.util.MultiHashMap;
@@ -775,6 +778,7 @@ public class Launcher extends Activity
         }
 
         mLauncherTab.getClient().onStop();
+        LauncherModel.flushPendingWrites();
     }
 
     @Override
@@ -2779,6 +2783,7 @@ public class Launcher extends Activity
     @Override
     public void onTrimMemory(int level) {
         super.onTrimMemory(level);
+        mIconCache.onTrimMemory(level);
         if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
             // The widget preview db can result in holding onto over
             // 3MB of memory for caching which isn't necessary.
@@ -2789,6 +2794,17 @@ public class Launcher extends Activity
         }
     }
 
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.println(prefix + "Launcher state: " + mState + " workspaceLoading="
+                + mWorkspaceLoading);
+        mModel.getLoaderTracer().dump(prefix, writer);
+        mIconCache.dump(prefix, writer);
+        LauncherModel.dumpPendingWrites(prefix, writer);
+        BitmapPool.getInstance().dump(prefix, writer);
+    }
+
     public boolean showWorkspace(boolean animated) {
         return showWorkspace(animated, null);
     }
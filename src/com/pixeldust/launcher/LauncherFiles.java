@@ -11,4 +11,5 @@ public class LauncherFiles {
 
     public static final String WIDGET_PREVIEWS_DB = "widgetpreviews.db";
     public static final String APP_ICONS_DB = "app_icons.db";
+    public static final String APP_ICONS_ATLAS = "app_icons.atlas";
 }
@@ -36,6 +36,7 @@ import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Parcelable;
 import android.os.Process;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.provider.BaseColumns;
 import android.support.annotation.NonNull;
@@ -45,6 +46,7 @@ import android.util.LongSparseArray;
 import android.util.MutableInt;
 import android.util.Pair;
 
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
 import java.net.URISyntaxException;
 import java.security.InvalidParameterException;
@@ -60,6 +62,8 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.pixeldust.launcher.blur.BlurWallpaperProvider;
 import com.pixeldust.launcher.compat.AppWidgetManagerCompat;
@@ -69,6 +73,7 @@ import com.pixeldust.launcher.compat.PackageInstallerCompat;
 import com.pixeldust.launcher.compat.PackageInstallerCompat.PackageInstallInfo;
 import com.pixeldust.launcher.compat.UserManagerCompat;
 import com.pixeldust.launcher.config.FeatureFlags;
+import com.pixeldust.launcher.config.ProviderConfig;
 import com.pixeldust.launcher.dynamicui.ExtractionUtils;
 import com.pixeldust.launcher.folder.Folder;
 import com.pixeldust.launcher.folder.FolderIcon;
@@ -82,7 +87,9 @@ import com.pixeldust.launcher.shortcuts.ShortcutKey;
 import com.pixeldust.launcher.util.ComponentKey;
 import com.pixeldust.launcher.util.CursorIconInfo;
 import com.pixeldust.launcher.util.FlagOp;
+import com.pixeldust.launcher.util.Executors;
 import com.pixeldust.launcher.util.GridOccupancy;
+import com.pixeldust.launcher.util.LoaderTracer;
 import com.pixeldust.launcher.util.LongArrayMap;
 import com.pixeldust.launcher.util.ManagedProfileHeuristic;
 import com.pixeldust.launcher.util.MultiHashMap;
@@ -104,11 +111,15 @@ public class LauncherModel extends BroadcastReceiver
     static final String TAG = "Launcher.Model";
 
     private static final int ITEMS_CHUNK = 6; // batch size for the workspace icons
+    // Number of app shortcuts whose icons are loaded by a single pool task in loadWorkspace()
+    private static final int WORKSPACE_ICON_BATCH_SIZE = 8;
     private static final long INVALID_SCREEN_ID = -1L;
 
     @Thunk
     final LauncherAppState mApp;
     @Thunk
+    final LoaderTracer mLoaderTracer = new LoaderTracer();
+    @Thunk
     final Object mLock = new Object();
     @Thunk
     DeferredHandler mHandler = new DeferredHandler();
@@ -120,14 +131,17 @@ public class LauncherModel extends BroadcastReceiver
     boolean mHasLoaderCompletedOnce;
 
     @Thunk
-    static final HandlerThread sWorkerThread = new HandlerThread("launcher-loader");
+    static final HandlerThread sWorkerThread = Executors.MODEL_EXECUTOR.getThread();
 
-    static {
-        sWorkerThread.start();
-    }
+    @Thunk
+    static final Handler sWorker = Executors.MODEL_EXECUTOR.getHandler();
 
+    // Batches the item writes made on the worker thread into single transactions
     @Thunk
-    static final Handler sWorker = new Handler(sWorkerThread.getLooper());
+    static final ItemWriteQueue sWriteQueue = new ItemWriteQueue(sWorker);
+
+    private static volatile float sWriteStackSampleRate =
+            ProviderConfig.MODEL_WRITE_STACK_SAMPLE_RATE;
 
     // We start off with everything not loaded.  After that, we assume that
     // our monitoring of the package manager provides all updates and we never
@@ -298,6 +312,18 @@ public class LauncherModel extends BroadcastReceiver
         }
     }
 
+    /**
+     * Commits the item writes which are waiting to be batched, for when the launcher is stopped
+     * and may be killed before the batch window ends.
+     */
+    public static void flushPendingWrites() {
+        sWriteQueue.flushAsync();
+    }
+
+    public static void dumpPendingWrites(String prefix, PrintWriter writer) {
+        sWriteQueue.dump(prefix, writer);
+    }
+
     /**
      * Runs the specified runnable immediately if called from the worker thread, otherwise it is
      * posted on the worker thread handler.
@@ -659,8 +685,35 @@ public class LauncherModel extends BroadcastReceiver
         }
     }
 
+    /**
+     * Sets the fraction of the model writes, between 0 and 1, for which the stack of the caller is
+     * captured. Ignored on dogfood builds, where every write is captured.
+     */
+    public static void setWriteStackSampleRate(float rate) {
+        sWriteStackSampleRate = rate;
+    }
+
+    /**
+     * Captures the stack of the caller, for {@link #checkItemInfoLocked} to report a mismatch
+     * found later on the worker thread. Walking the stack is expensive on the UI thread, so it is
+     * only done for a sample of the writes outside of dogfood builds.
+     *
+     * @return the stack, or null if this write is not part of the sample.
+     */
+    @Thunk
+    static StackTraceElement[] captureWriteStack() {
+        if (!ProviderConfig.IS_DOGFOOD_BUILD) {
+            float rate = sWriteStackSampleRate;
+            if (rate <= 0 || (rate < 1 && ThreadLocalRandom.current().nextFloat() >= rate)) {
+                return null;
+            }
+        }
+        return new Throwable().getStackTrace();
+    }
+
     static void checkItemInfo(final ItemInfo item) {
-        final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+        // Every item is verified, only the sampled ones report the stack of the caller
+        final StackTraceElement[] stackTrace = captureWriteStack();
         final long itemId = item.id;
         Runnable r = new Runnable() {
             @Override
@@ -673,48 +726,34 @@ public class LauncherModel extends BroadcastReceiver
         runOnWorkerThread(r);
     }
 
-    static void updateItemInDatabaseHelper(Context context, final ContentValues values,
+    static void updateItemInDatabaseHelper(final Context context, final ContentValues values,
                                            final ItemInfo item) {
         final long itemId = item.id;
-        final Uri uri = LauncherSettings.Favorites.getContentUri(itemId);
-        final ContentResolver cr = context.getContentResolver();
 
-        final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+        final StackTraceElement[] stackTrace = captureWriteStack();
         Runnable r = new Runnable() {
             @Override
             public void run() {
-                cr.update(uri, values, null, null);
+                sWriteQueue.updateItem(context, itemId, values);
                 updateItemArrays(item, itemId, stackTrace);
             }
         };
         runOnWorkerThread(r);
     }
 
-    static void updateItemsInDatabaseHelper(Context context, final ArrayList<ContentValues> valuesList,
+    static void updateItemsInDatabaseHelper(final Context context,
+                                            final ArrayList<ContentValues> valuesList,
                                             final ArrayList<ItemInfo> items) {
-        final ContentResolver cr = context.getContentResolver();
-
-        final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+        final StackTraceElement[] stackTrace = captureWriteStack();
         Runnable r = new Runnable() {
             @Override
             public void run() {
-                ArrayList<ContentProviderOperation> ops =
-                        new ArrayList<>();
                 int count = items.size();
                 for (int i = 0; i < count; i++) {
                     ItemInfo item = items.get(i);
                     final long itemId = item.id;
-                    final Uri uri = LauncherSettings.Favorites.getContentUri(itemId);
-                    ContentValues values = valuesList.get(i);
-
-                    ops.add(ContentProviderOperation.newUpdate(uri).withValues(values).build());
+                    sWriteQueue.updateItem(context, itemId, valuesList.get(i));
                     updateItemArrays(item, itemId, stackTrace);
-
-                }
-                try {
-                    cr.applyBatch(LauncherProvider.AUTHORITY, ops);
-                } catch (Exception ignored) {
-
                 }
             }
         };
@@ -917,7 +956,7 @@ public class LauncherModel extends BroadcastReceiver
      * Add an item to the database in a specified container. Sets the container, screen, cellX and
      * cellY fields of the item. Also assigns an ID to the item.
      */
-    public static void addItemToDatabase(Context context, final ItemInfo item, final long container,
+    public static void addItemToDatabase(final Context context, final ItemInfo item, final long container,
                                          final long screenId, final int cellX, final int cellY) {
         item.container = container;
         item.cellX = cellX;
@@ -941,11 +980,11 @@ public class LauncherModel extends BroadcastReceiver
 
         values.put(LauncherSettings.Favorites._ID, item.id);
 
-        final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+        final StackTraceElement[] stackTrace = captureWriteStack();
         Runnable r = new Runnable() {
             @Override
             public void run() {
-                cr.insert(LauncherSettings.Favorites.CONTENT_URI, values);
+                sWriteQueue.insertItem(context, item.id, values);
 
                 // Lock on mBgLock *after* the db operation
                 synchronized (sBgLock) {
@@ -1016,14 +1055,13 @@ public class LauncherModel extends BroadcastReceiver
     /**
      * Removes the specified items from the database
      */
-    static void deleteItemsFromDatabase(Context context, final ArrayList<? extends ItemInfo> items) {
-        final ContentResolver cr = context.getContentResolver();
+    static void deleteItemsFromDatabase(final Context context,
+                                       final ArrayList<? extends ItemInfo> items) {
         Runnable r = new Runnable() {
             @Override
             public void run() {
                 for (ItemInfo item : items) {
-                    final Uri uri = LauncherSettings.Favorites.getContentUri(item.id);
-                    cr.delete(uri, null, null);
+                    sWriteQueue.deleteItem(context, item.id);
 
                     // Lock on mBgLock *after* the db operation
                     synchronized (sBgLock) {
@@ -1098,9 +1136,8 @@ public class LauncherModel extends BroadcastReceiver
      * Update the order of the workspace screens in the database. The array list contains
      * a list of screen ids in the order that they should appear.
      */
-    public void updateWorkspaceScreenOrder(Context context, final ArrayList<Long> screens) {
+    public void updateWorkspaceScreenOrder(final Context context, final ArrayList<Long> screens) {
         final ArrayList<Long> screensCopy = new ArrayList<>(screens);
-        final ContentResolver cr = context.getContentResolver();
         final Uri uri = LauncherSettings.WorkspaceScreens.CONTENT_URI;
 
         // Remove any negative screen ids -- these aren't persisted
@@ -1115,22 +1152,16 @@ public class LauncherModel extends BroadcastReceiver
         Runnable r = new Runnable() {
             @Override
             public void run() {
-                ArrayList<ContentProviderOperation> ops = new ArrayList<>();
-                // Clear the table
-                ops.add(ContentProviderOperation.newDelete(uri).build());
+                // Clear the table, in the same transaction as the pending item writes
+                sWriteQueue.enqueue(context, ContentProviderOperation.newDelete(uri).build());
                 int count = screensCopy.size();
                 for (int i = 0; i < count; i++) {
                     ContentValues v = new ContentValues();
                     long screenId = screensCopy.get(i);
                     v.put(LauncherSettings.WorkspaceScreens._ID, screenId);
                     v.put(LauncherSettings.WorkspaceScreens.SCREEN_RANK, i);
-                    ops.add(ContentProviderOperation.newInsert(uri).withValues(v).build());
-                }
-
-                try {
-                    cr.applyBatch(LauncherProvider.AUTHORITY, ops);
-                } catch (Exception ex) {
-                    throw new RuntimeException(ex);
+                    sWriteQueue.enqueue(context,
+                            ContentProviderOperation.newInsert(uri).withValues(v).build());
                 }
 
                 synchronized (sBgLock) {
@@ -1145,13 +1176,12 @@ public class LauncherModel extends BroadcastReceiver
     /**
      * Remove the specified folder and all its contents from the database.
      */
-    public static void deleteFolderAndContentsFromDatabase(Context context, final FolderInfo info) {
-        final ContentResolver cr = context.getContentResolver();
-
+    public static void deleteFolderAndContentsFromDatabase(final Context context,
+                                                           final FolderInfo info) {
         Runnable r = new Runnable() {
             @Override
             public void run() {
-                cr.delete(LauncherSettings.Favorites.getContentUri(info.id), null, null);
+                sWriteQueue.deleteItem(context, info.id);
                 // Lock on mBgLock *after* the db operation
                 synchronized (sBgLock) {
                     sBgItemsIdMap.remove(info.id);
@@ -1159,8 +1189,10 @@ public class LauncherModel extends BroadcastReceiver
                     sBgWorkspaceItems.remove(info);
                 }
 
-                cr.delete(LauncherSettings.Favorites.CONTENT_URI,
-                        LauncherSettings.Favorites.CONTAINER + "=" + info.id, null);
+                sWriteQueue.enqueue(context, ContentProviderOperation
+                        .newDelete(LauncherSettings.Favorites.CONTENT_URI)
+                        .withSelection(LauncherSettings.Favorites.CONTAINER + "=" + info.id, null)
+                        .build());
                 // Lock on mBgLock *after* the db operation
                 synchronized (sBgLock) {
                     for (ItemInfo childInfo : info.contents) {
@@ -1409,6 +1441,7 @@ public class LauncherModel extends BroadcastReceiver
 
                 // If there is already one running, tell it to stop.
                 stopLoaderLocked();
+                mLoaderTracer.start();
                 mLoaderTask = new LoaderTask(mApp.getContext(), synchronousBindPage);
                 // TODO: mDeepShortcutsLoaded does not need to be true for synchronous bind.
                 if (synchronousBindPage != PagedView.INVALID_RESTORE_PAGE && mAllAppsLoaded
@@ -1424,6 +1457,13 @@ public class LauncherModel extends BroadcastReceiver
         return false;
     }
 
+    /**
+     * @return the timings of the last load-and-bind.
+     */
+    public LoaderTracer getLoaderTracer() {
+        return mLoaderTracer;
+    }
+
     public void stopLoader() {
         synchronized (mLock) {
             if (mLoaderTask != null) {
@@ -1457,7 +1497,9 @@ public class LauncherModel extends BroadcastReceiver
 
         @Thunk
         boolean mIsLoadingAndBindingWorkspace;
-        private boolean mStopped;
+        // Read by the icon loading tasks of loadWorkspace() on the thread pool
+        @Thunk
+        volatile boolean mStopped;
         @Thunk
         boolean mLoadAndBindStepFinished;
 
@@ -1471,7 +1513,12 @@ public class LauncherModel extends BroadcastReceiver
 
             // Load the workspace
             if (!mWorkspaceLoaded) {
-                loadWorkspace();
+                mLoaderTracer.beginPhase(LoaderTracer.PHASE_LOAD_WORKSPACE);
+                try {
+                    loadWorkspace();
+                } finally {
+                    mLoaderTracer.endPhase(sBgItemsIdMap.size());
+                }
                 synchronized (LoaderTask.this) {
                     if (mStopped) {
                         return;
@@ -1480,8 +1527,14 @@ public class LauncherModel extends BroadcastReceiver
                 }
             }
 
-            // Bind the workspace
-            bindWorkspace(mPageToBindFirst);
+            // Bind the workspace. This only posts the bind tasks, the UI thread is done binding
+            // at the MARK_WORKSPACE_BOUND mark.
+            mLoaderTracer.beginPhase(LoaderTracer.PHASE_POST_BIND_WORKSPACE);
+            try {
+                bindWorkspace(mPageToBindFirst);
+            } finally {
+                mLoaderTracer.endPhase(sBgWorkspaceItems.size() + sBgAppWidgets.size());
+            }
         }
 
         private void waitForIdle() {
@@ -1558,6 +1611,8 @@ public class LauncherModel extends BroadcastReceiver
                 }
                 mIsLoaderTaskRunning = true;
             }
+            // The loader reads the database, commit the writes made before it
+            sWriteQueue.flush();
             // Optimize for end-user experience: if the Launcher is up and // running with the
             // All Apps interface in the foreground, load All Apps first. Otherwise, load the
             // workspace first (default).
@@ -1652,18 +1707,18 @@ public class LauncherModel extends BroadcastReceiver
                 }
 
                 if (hotseatOccupancy != null) {
-                    if (hotseatOccupancy.cells[(int) item.screenId][0]) {
+                    if (hotseatOccupancy.isOccupied((int) item.screenId, 0)) {
                         Log.e(TAG, "Error loading shortcut into hotseat " + item
                                 + " into position (" + item.screenId + ":" + item.cellX + ","
                                 + item.cellY + ") already occupied");
                         return false;
                     } else {
-                        hotseatOccupancy.cells[(int) item.screenId][0] = true;
+                        hotseatOccupancy.markCells((int) item.screenId, 0, 1, 1, true);
                         return true;
                     }
                 } else {
                     final GridOccupancy occupancy = new GridOccupancy(profile.numHotseatIcons, 1);
-                    occupancy.cells[(int) item.screenId][0] = true;
+                    occupancy.markCells((int) item.screenId, 0, 1, 1, true);
                     occupied.put((long) LauncherSettings.Favorites.CONTAINER_HOTSEAT, occupancy);
                     return true;
                 }
@@ -1771,6 +1826,13 @@ public class LauncherModel extends BroadcastReceiver
                 final LongArrayMap<GridOccupancy> occupied = new LongArrayMap<>();
                 HashMap<ComponentKey, AppWidgetProviderInfo> widgetProvidersMap = null;
 
+                // The items are decoded from the cursor first, while the icons of app shortcuts are
+                // loaded on the thread pool. The placement of the items is checked once the cursor
+                // is done, and the icons are waited for last.
+                final ArrayList<ItemInfo> loadedItems = new ArrayList<>();
+                final WorkspaceIconLoader iconLoader = new WorkspaceIconLoader();
+                final long decodeStart = SystemClock.uptimeMillis();
+
                 try {
                     final int idIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites._ID);
                     final int intentIndex = c.getColumnIndexOrThrow
@@ -1844,6 +1906,7 @@ public class LauncherModel extends BroadcastReceiver
 
                     while (!mStopped && c.moveToNext()) {
                         try {
+                            PendingAppShortcut pending = null;
                             int itemType = c.getInt(itemTypeIndex);
                             boolean restored = 0 != c.getInt(restoredIndex);
                             boolean allowMissingTarget = false;
@@ -2005,8 +2068,17 @@ public class LauncherModel extends BroadcastReceiver
                                         }
                                     } else if (itemType ==
                                             LauncherSettings.Favorites.ITEM_TYPE_APPLICATION) {
-                                        info = getAppShortcutInfo(intent, user, c,
-                                                cursorIconInfo, allowMissingTarget, useLowResIcon);
+                                        pending = newPendingAppShortcut(intent, user,
+                                                allowMissingTarget, useLowResIcon);
+                                        if (pending != null) {
+                                            // The icon is only read from the db if the app
+                                            // is not in the icon cache, see loadDbIcons()
+                                            pending.setDbFallback(id,
+                                                    cursorIconInfo.getTitle(c));
+                                            info = pending.info;
+                                        } else {
+                                            info = null;
+                                        }
                                     } else if (itemType ==
                                             LauncherSettings.Favorites.ITEM_TYPE_DEEP_SHORTCUT) {
 
@@ -2071,12 +2143,6 @@ public class LauncherModel extends BroadcastReceiver
                                             info.isDisabled |= ShortcutInfo.FLAG_DISABLED_SAFEMODE;
                                         }
 
-                                        // check & update map of what's occupied
-                                        if (!checkItemPlacement(occupied, info, sBgWorkspaceScreens)) {
-                                            itemsToRemove.add(id);
-                                            break;
-                                        }
-
                                         if (restored) {
                                             ComponentName cn = info.getTargetComponent();
                                             if (cn != null) {
@@ -2089,19 +2155,12 @@ public class LauncherModel extends BroadcastReceiver
                                             }
                                         }
 
-                                        switch (container) {
-                                            case LauncherSettings.Favorites.CONTAINER_DESKTOP:
-                                            case LauncherSettings.Favorites.CONTAINER_HOTSEAT:
-                                                sBgWorkspaceItems.add(info);
-                                                break;
-                                            default:
-                                                // Item is in a user folder
-                                                FolderInfo folderInfo =
-                                                        findOrMakeFolder(sBgFolders, container);
-                                                folderInfo.add(info, false);
-                                                break;
+                                        // The info is complete, the title and icon can now be
+                                        // loaded in the background.
+                                        if (pending != null) {
+                                            iconLoader.add(pending);
                                         }
-                                        sBgItemsIdMap.put(info.id, info);
+                                        loadedItems.add(info);
                                     } else {
                                         throw new RuntimeException("Unexpected null ShortcutInfo");
                                     }
@@ -2122,26 +2181,12 @@ public class LauncherModel extends BroadcastReceiver
                                     folderInfo.spanY = 1;
                                     folderInfo.options = c.getInt(optionsIndex);
 
-                                    // check & update map of what's occupied
-                                    if (!checkItemPlacement(occupied, folderInfo, sBgWorkspaceScreens)) {
-                                        itemsToRemove.add(id);
-                                        break;
-                                    }
-
-                                    switch (container) {
-                                        case LauncherSettings.Favorites.CONTAINER_DESKTOP:
-                                        case LauncherSettings.Favorites.CONTAINER_HOTSEAT:
-                                            sBgWorkspaceItems.add(folderInfo);
-                                            break;
-                                    }
-
                                     if (restored) {
                                         // no special handling required for restored folders
                                         restoredRows.add(id);
                                     }
 
-                                    sBgItemsIdMap.put(folderInfo.id, folderInfo);
-                                    sBgFolders.put(folderInfo.id, folderInfo);
+                                    loadedItems.add(folderInfo);
                                     break;
 
                                 case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
@@ -2254,11 +2299,6 @@ public class LauncherModel extends BroadcastReceiver
                                         }
 
                                         appWidgetInfo.container = container;
-                                        // check & update map of what's occupied
-                                        if (!checkItemPlacement(occupied, appWidgetInfo, sBgWorkspaceScreens)) {
-                                            itemsToRemove.add(id);
-                                            break;
-                                        }
 
                                         if (!customWidget) {
                                             String providerName =
@@ -2274,8 +2314,7 @@ public class LauncherModel extends BroadcastReceiver
                                                 updateItem(id, values);
                                             }
                                         }
-                                        sBgItemsIdMap.put(appWidgetInfo.id, appWidgetInfo);
-                                        sBgAppWidgets.add(appWidgetInfo);
+                                        loadedItems.add(appWidgetInfo);
                                     }
                                     break;
                             }
@@ -2286,6 +2325,34 @@ public class LauncherModel extends BroadcastReceiver
                 } finally {
                     Utilities.closeSilently(c);
                 }
+                iconLoader.flush();
+                final long placementStart = SystemClock.uptimeMillis();
+
+                // check & update map of what's occupied, in cursor order
+                for (ItemInfo item : loadedItems) {
+                    if (mStopped) {
+                        break;
+                    }
+                    if (!checkItemPlacement(occupied, item, sBgWorkspaceScreens)) {
+                        itemsToRemove.add(item.id);
+                        continue;
+                    }
+                    addLoadedItem(item);
+                }
+                final long iconWaitStart = SystemClock.uptimeMillis();
+
+                // Folder previews below need the icons of their items
+                iconLoader.await();
+                if (!mStopped) {
+                    iconLoader.loadDbIcons(contentResolver);
+                }
+
+                Log.d(TAG, "loadWorkspace: decoded " + loadedItems.size() + " items in "
+                        + (placementStart - decodeStart) + "ms, placed them in "
+                        + (iconWaitStart - placementStart) + "ms, loaded "
+                        + iconLoader.getIconCount() + " icons in " + iconLoader.getLoadTime()
+                        + "ms of pool time, waited " + (SystemClock.uptimeMillis() - iconWaitStart)
+                        + "ms for them");
 
                 // Break early if we've stopped loading
                 if (mStopped) {
@@ -2368,6 +2435,157 @@ public class LauncherModel extends BroadcastReceiver
             }
         }
 
+        /**
+         * Adds an item which was loaded from the DB, and passed the placement check, to the model.
+         */
+        private void addLoadedItem(ItemInfo item) {
+            if (item instanceof ShortcutInfo) {
+                switch ((int) item.container) {
+                    case LauncherSettings.Favorites.CONTAINER_DESKTOP:
+                    case LauncherSettings.Favorites.CONTAINER_HOTSEAT:
+                        sBgWorkspaceItems.add(item);
+                        break;
+                    default:
+                        // Item is in a user folder
+                        FolderInfo folderInfo = findOrMakeFolder(sBgFolders, item.container);
+                        folderInfo.add((ShortcutInfo) item, false);
+                        break;
+                }
+            } else if (item instanceof FolderInfo) {
+                switch ((int) item.container) {
+                    case LauncherSettings.Favorites.CONTAINER_DESKTOP:
+                    case LauncherSettings.Favorites.CONTAINER_HOTSEAT:
+                        sBgWorkspaceItems.add(item);
+                        break;
+                }
+                sBgFolders.put(item.id, (FolderInfo) item);
+            } else if (item instanceof LauncherAppWidgetInfo) {
+                sBgAppWidgets.add((LauncherAppWidgetInfo) item);
+            }
+            sBgItemsIdMap.put(item.id, item);
+        }
+
+        /**
+         * Loads the titles and icons of app shortcuts on the thread pool, in batches, while the
+         * loader keeps reading the cursor. The batches stop early when the loader is stopped.
+         */
+        private class WorkspaceIconLoader {
+            private ArrayList<PendingAppShortcut> mBatch = new ArrayList<>();
+            // The shortcuts whose app is not in the icon cache, guarded by itself
+            private final ArrayList<PendingAppShortcut> mNeedDbIcon = new ArrayList<>();
+            private final AtomicLong mLoadTime = new AtomicLong();
+            private int mIconCount;
+
+            // Guarded by this
+            private int mSubmitted;
+            private int mCompleted;
+
+            void add(PendingAppShortcut pending) {
+                mBatch.add(pending);
+                mIconCount++;
+                if (mBatch.size() >= WORKSPACE_ICON_BATCH_SIZE) {
+                    flush();
+                }
+            }
+
+            void flush() {
+                if (mBatch.isEmpty()) {
+                    return;
+                }
+                final ArrayList<PendingAppShortcut> batch = mBatch;
+                mBatch = new ArrayList<>();
+                synchronized (this) {
+                    mSubmitted++;
+                }
+                Executors.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        long start = SystemClock.uptimeMillis();
+                        try {
+                            for (PendingAppShortcut pending : batch) {
+                                if (mStopped) {
+                                    break;
+                                }
+                                loadTitleAndIcon(pending);
+                                if (pending.needsDbIcon) {
+                                    synchronized (mNeedDbIcon) {
+                                        mNeedDbIcon.add(pending);
+                                    }
+                                }
+                            }
+                        } finally {
+                            mLoadTime.addAndGet(SystemClock.uptimeMillis() - start);
+                            synchronized (WorkspaceIconLoader.this) {
+                                mCompleted++;
+                                WorkspaceIconLoader.this.notifyAll();
+                            }
+                        }
+                    }
+                }, Executors.PRIORITY_HIGH);
+            }
+
+            /**
+             * Waits until all the submitted batches are done. This also waits when the loader is
+             * stopped, as the batches write into shortcuts which are already in the model; they
+             * skip their remaining items in that case.
+             */
+            synchronized void await() {
+                while (mCompleted < mSubmitted) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        // Ignore
+                    }
+                }
+            }
+
+            /**
+             * Reads the icons stored in the db for the shortcuts whose app was not in the icon
+             * cache. Must be called after {@link #await}.
+             */
+            void loadDbIcons(ContentResolver contentResolver) {
+                LongArrayMap<PendingAppShortcut> pendings = new LongArrayMap<>();
+                ArrayList<Long> ids = new ArrayList<>();
+                synchronized (mNeedDbIcon) {
+                    for (PendingAppShortcut pending : mNeedDbIcon) {
+                        pendings.put(pending.dbId, pending);
+                        ids.add(pending.dbId);
+                    }
+                    mNeedDbIcon.clear();
+                }
+                if (ids.isEmpty()) {
+                    return;
+                }
+
+                Cursor c = contentResolver.query(LauncherSettings.Favorites.CONTENT_URI,
+                        new String[]{LauncherSettings.Favorites._ID,
+                                LauncherSettings.Favorites.ICON},
+                        Utilities.createDbSelectionQuery(LauncherSettings.Favorites._ID,
+                                ids), null, null);
+                if (c == null) {
+                    return;
+                }
+                try {
+                    while (c.moveToNext()) {
+                        PendingAppShortcut pending = pendings.get(c.getLong(0));
+                        if (pending != null) {
+                            setDbIcon(pending, c.getBlob(1));
+                        }
+                    }
+                } finally {
+                    Utilities.closeSilently(c);
+                }
+            }
+
+            int getIconCount() {
+                return mIconCount;
+            }
+
+            long getLoadTime() {
+                return mLoadTime.get();
+            }
+        }
+
         /**
          * Partially updates the item without any notification. Must be called on the worker thread.
          */
@@ -2639,6 +2857,7 @@ public class LauncherModel extends BroadcastReceiver
                     if (callbacks != null) {
                         callbacks.finishBindingItems();
                     }
+                    mLoaderTracer.mark(LoaderTracer.MARK_WORKSPACE_BOUND);
 
                     mIsLoadingAndBindingWorkspace = false;
 
@@ -2677,13 +2896,23 @@ public class LauncherModel extends BroadcastReceiver
 
         private void loadAndBindAllApps() {
             if (!mAllAppsLoaded) {
-                loadAllApps();
+                mLoaderTracer.beginPhase(LoaderTracer.PHASE_LOAD_ALL_APPS);
+                try {
+                    loadAllApps();
+                } finally {
+                    mLoaderTracer.endPhase(mBgAllAppsList.size());
+                }
                 synchronized (LoaderTask.this) {
                     if (mStopped) {
                         return;
                     }
                 }
-                updateIconCache();
+                mLoaderTracer.beginPhase(LoaderTracer.PHASE_UPDATE_ICON_CACHE);
+                try {
+                    updateIconCache();
+                } finally {
+                    mLoaderTracer.endPhase(-1);
+                }
                 synchronized (LoaderTask.this) {
                     if (mStopped) {
                         return;
@@ -2817,16 +3046,21 @@ public class LauncherModel extends BroadcastReceiver
 
         private void loadAndBindDeepShortcuts() {
             if (!mDeepShortcutsLoaded) {
-                mBgDeepShortcutMap.clear();
-                mHasShortcutHostPermission = mDeepShortcutManager.hasHostPermission();
-                if (mHasShortcutHostPermission) {
-                    for (UserHandle user : mUserManager.getUserProfiles()) {
-                        if (mUserManager.isUserUnlocked(user)) {
-                            List<ShortcutInfoCompat> shortcuts = mDeepShortcutManager
-                                    .queryForAllShortcuts(user);
-                            updateDeepShortcutMap(null, user, shortcuts);
+                mLoaderTracer.beginPhase(LoaderTracer.PHASE_LOAD_DEEP_SHORTCUTS);
+                try {
+                    mBgDeepShortcutMap.clear();
+                    mHasShortcutHostPermission = mDeepShortcutManager.hasHostPermission();
+                    if (mHasShortcutHostPermission) {
+                        for (UserHandle user : mUserManager.getUserProfiles()) {
+                            if (mUserManager.isUserUnlocked(user)) {
+                                List<ShortcutInfoCompat> shortcuts = mDeepShortcutManager
+                                        .queryForAllShortcuts(user);
+                                updateDeepShortcutMap(null, user, shortcuts);
+                            }
                         }
                     }
+                } finally {
+                    mLoaderTracer.endPhase(mBgDeepShortcutMap.size());
                 }
                 synchronized (LoaderTask.this) {
                     if (mStopped) {
@@ -3616,6 +3850,62 @@ public class LauncherModel extends BroadcastReceiver
     public ShortcutInfo getAppShortcutInfo(Intent intent,
                                            UserHandle user, Cursor c, CursorIconInfo iconInfo,
                                            boolean allowMissingTarget, boolean useLowResIcon) {
+        PendingAppShortcut pending = newPendingAppShortcut(intent, user, allowMissingTarget,
+                useLowResIcon);
+        if (pending == null) {
+            return null;
+        }
+        if (c != null) {
+            pending.setDbFallback(ItemInfo.NO_ID, iconInfo.getTitle(c));
+        }
+        loadTitleAndIcon(pending);
+        if (pending.needsDbIcon) {
+            setDbIcon(pending, c.getBlob(iconInfo.iconIndex));
+        }
+        return pending.info;
+    }
+
+    /**
+     * An app shortcut whose title and icon have not been loaded yet. The icon cache lookup is
+     * the slow part of creating the shortcut, so it is kept separate for the loader to run it in
+     * parallel.
+     */
+    static class PendingAppShortcut {
+        final ShortcutInfo info;
+        final ComponentName componentName;
+        final LauncherActivityInfoCompat lai;
+        final boolean useLowResIcon;
+
+        // Used when the app is not found in the icon cache. The icon blob is large, so it is
+        // only read from the db row once the cache lookup has failed.
+        boolean hasDbFallback;
+        long dbId;
+        String dbTitle;
+        boolean needsDbIcon;
+
+        PendingAppShortcut(ShortcutInfo info, ComponentName componentName,
+                           LauncherActivityInfoCompat lai, boolean useLowResIcon) {
+            this.info = info;
+            this.componentName = componentName;
+            this.lai = lai;
+            this.useLowResIcon = useLowResIcon;
+        }
+
+        void setDbFallback(long id, String title) {
+            hasDbFallback = true;
+            dbId = id;
+            dbTitle = title;
+        }
+    }
+
+    /**
+     * Resolves the activity of an app shortcut, see {@link #getAppShortcutInfo}.
+     *
+     * @return null if the shortcut is invalid.
+     */
+    @Thunk
+    PendingAppShortcut newPendingAppShortcut(Intent intent, UserHandle user,
+                                             boolean allowMissingTarget, boolean useLowResIcon) {
         if (user == null) {
             Log.d(TAG, "Null user found in getShortcutInfo");
             return null;
@@ -3637,33 +3927,55 @@ public class LauncherModel extends BroadcastReceiver
         }
 
         final ShortcutInfo info = new ShortcutInfo();
-        mIconCache.getTitleAndIcon(info, componentName, lai, user, false, useLowResIcon);
-        if (mIconCache.isDefaultIcon(info.getIcon(mIconCache), user) && c != null) {
-            Bitmap icon = iconInfo.loadIcon(c);
-            info.setIcon(icon == null ? mIconCache.getDefaultIcon(user) : icon);
+        info.itemType = LauncherSettings.Favorites.ITEM_TYPE_APPLICATION;
+        info.user = user;
+        return new PendingAppShortcut(info, componentName, lai, useLowResIcon);
+    }
+
+    /**
+     * Fills in the title and icon of an app shortcut. This can be called from any thread, as long
+     * as nothing else modifies the shortcut at the same time.
+     */
+    @Thunk
+    void loadTitleAndIcon(PendingAppShortcut pending) {
+        final ShortcutInfo info = pending.info;
+        final UserHandle user = info.user;
+        final LauncherActivityInfoCompat lai = pending.lai;
+        mIconCache.getTitleAndIcon(info, pending.componentName, lai, user, false,
+                pending.useLowResIcon);
+        if (mIconCache.isDefaultIcon(info.getIcon(mIconCache), user) && pending.hasDbFallback) {
+            // The caller reads the icon from the db and passes it to setDbIcon()
+            pending.needsDbIcon = true;
         }
 
         if (lai != null && PackageManagerHelper.isAppSuspended(lai.getApplicationInfo())) {
-            info.isDisabled = ShortcutInfo.FLAG_DISABLED_SUSPENDED;
+            info.isDisabled |= ShortcutInfo.FLAG_DISABLED_SUSPENDED;
         }
 
         // from the db
-        if (TextUtils.isEmpty(info.title) && c != null) {
-            info.title = iconInfo.getTitle(c);
+        if (TextUtils.isEmpty(info.title) && pending.hasDbFallback) {
+            info.title = pending.dbTitle;
         }
 
         // fall back to the class name of the activity
         if (info.title == null) {
-            info.title = componentName.getClassName();
+            info.title = pending.componentName.getClassName();
         }
 
-        info.itemType = LauncherSettings.Favorites.ITEM_TYPE_APPLICATION;
-        info.user = user;
         info.contentDescription = mUserManager.getBadgedLabelForUser(info.title, info.user);
         if (lai != null) {
             info.flags = AppInfo.initFlags(lai);
         }
-        return info;
+    }
+
+    /**
+     * Sets the icon of an app shortcut which was not found in the icon cache, from its db row.
+     */
+    @Thunk
+    void setDbIcon(PendingAppShortcut pending, byte[] data) {
+        Bitmap icon = Utilities.createIconBitmap(data, mApp.getContext());
+        pending.info.setIcon(icon == null ? mIconCache.getDefaultIcon(pending.info.user) : icon);
+        pending.needsDbIcon = false;
     }
 
     static ArrayList<ItemInfo> filterItemInfos(Iterable<ItemInfo> infos,
@@ -3831,6 +4143,7 @@ public class LauncherModel extends BroadcastReceiver
 
     /**
      * @return the looper for the worker thread which can be used to start background tasks.
+     * Only use this for work which reads or mutates the model, see {@link Executors}.
      */
     public static Looper getWorkerLooper() {
         return sWorkerThread.getLooper();
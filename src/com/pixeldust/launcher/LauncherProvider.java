@@ -61,6 +61,7 @@ import com.pixeldust.launcher.dynamicui.ExtractionUtils;
 import com.pixeldust.launcher.provider.RestoreDbTask;
 import com.pixeldust.launcher.util.ManagedProfileHeuristic;
 import com.pixeldust.launcher.util.NoLocaleSqliteContext;
+import com.pixeldust.launcher.util.SQLiteStatementCache;
 import com.pixeldust.launcher.util.Thunk;
 
 public class LauncherProvider extends ContentProvider {
@@ -131,7 +132,9 @@ public class LauncherProvider extends ContentProvider {
         SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
         qb.setTables(args.table);
 
-        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        // With write-ahead logging, reads outside of a transaction use their own connection and
+        // are not blocked by a writer.
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
         Cursor result = qb.query(db, projection, args.where, args.args, null, null, sortOrder);
         result.setNotificationUri(getContext().getContentResolver(), uri);
 
@@ -148,7 +151,12 @@ public class LauncherProvider extends ContentProvider {
             throw new RuntimeException("Error: attempting to add item without specifying an id");
         }
         helper.checkId(table, values);
-        return db.insert(table, nullColumnHack, values);
+        try {
+            return helper.mStatementCache.insert(db, table, nullColumnHack, values, false);
+        } catch (SQLException e) {
+            Log.e(TAG, "Error inserting " + values, e);
+            return -1;
+        }
     }
 
     private void reloadLauncherIfExternal() {
@@ -333,7 +341,7 @@ public class LauncherProvider extends ContentProvider {
 
         addModifiedTime(values);
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        int count = db.update(args.table, values, args.where, args.args);
+        int count = mOpenHelper.mStatementCache.update(db, args.table, values, args.where, args.args);
         if (count > 0) notifyListeners();
 
         reloadLauncherIfExternal();
@@ -394,6 +402,14 @@ public class LauncherProvider extends ContentProvider {
                 loadDefaultFavoritesIfNecessary();
                 return null;
             }
+            case LauncherSettings.Settings.METHOD_CHECKPOINT_DB: {
+                // Moves the write-ahead log into the database file, so that it can be copied
+                try (Cursor c = mOpenHelper.getWritableDatabase()
+                        .rawQuery("PRAGMA wal_checkpoint(FULL)", null)) {
+                    c.moveToFirst();
+                }
+                return null;
+            }
             case LauncherSettings.Settings.METHOD_DELETE_DB: {
                 // Are you sure? (y/n)
                 mOpenHelper.createEmptyDB(mOpenHelper.getWritableDatabase());
@@ -547,6 +563,9 @@ public class LauncherProvider extends ContentProvider {
         private long mMaxItemId = -1;
         private long mMaxScreenId = -1;
 
+        // Compiled insert and update statements, reused across calls
+        final SQLiteStatementCache mStatementCache = new SQLiteStatementCache();
+
         DatabaseHelper(Context context, Handler widgetHostResetHandler) {
             this(context, widgetHostResetHandler, LauncherFiles.LAUNCHER_DB);
             // Table creation sometimes fails silently, which leads to a crash loop.
@@ -570,6 +589,8 @@ public class LauncherProvider extends ContentProvider {
             super(new NoLocaleSqliteContext(context), tableName, null, DATABASE_VERSION);
             mContext = context;
             mWidgetHostResetHandler = widgetHostResetHandler;
+            // Lets the loader read while the model writes. Ignored for in-memory databases.
+            setWriteAheadLoggingEnabled(true);
         }
 
         protected void initIds() {
@@ -671,6 +692,7 @@ public class LauncherProvider extends ContentProvider {
          * Clears all the data for a fresh start.
          */
         public void createEmptyDB(SQLiteDatabase db) {
+            mStatementCache.clear();
             db.execSQL("DROP TABLE IF EXISTS " + Favorites.TABLE_NAME);
             db.execSQL("DROP TABLE IF EXISTS " + WorkspaceScreens.TABLE_NAME);
             onCreate(db);
@@ -792,8 +814,9 @@ public class LauncherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("WHERE clause not supported: " + url);
             } else {
                 this.table = url.getPathSegments().get(0);
-                this.where = "_id=" + ContentUris.parseId(url);
-                this.args = null;
+                // Bound rather than inlined, so that the statements of all the items are the same
+                this.where = "_id=?";
+                this.args = new String[]{Long.toString(ContentUris.parseId(url))};
             }
         }
 
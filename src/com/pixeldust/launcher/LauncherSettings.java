@@ -296,6 +296,7 @@ public class LauncherSettings {
 
         public static final String METHOD_CREATE_EMPTY_DB = "create_empty_db";
         public static final String METHOD_DELETE_DB = "delete_db";
+        public static final String METHOD_CHECKPOINT_DB = "checkpoint_db";
 
         public static final String METHOD_LOAD_DEFAULT_FAVORITES = "load_default_favorites";
 
@@ -18,11 +18,14 @@ package com.pixeldust.launcher;
 
 import android.app.WallpaperManager;
 import android.content.Context;
+import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.view.View;
 import android.view.ViewGroup;
 
+import com.pixeldust.launcher.util.FrameTracker;
+
 public class ShortcutAndWidgetContainer extends ViewGroup {
 
     // These are temporary variables to prevent having to allocate a new object just to
@@ -45,6 +48,8 @@ public class ShortcutAndWidgetContainer extends ViewGroup {
 
     private boolean mInvertIfRtl = false;
 
+    private FrameTracker mDrawTracker;
+
     public ShortcutAndWidgetContainer(Context context) {
         super(context);
         mLauncher = Launcher.getLauncher(context);
@@ -148,6 +153,22 @@ public class ShortcutAndWidgetContainer extends ViewGroup {
         return mInvertIfRtl && Utilities.isRtl(getResources());
     }
 
+    /**
+     * Sets the tracker told every time the children are drawn again, instead of reusing the
+     * previous display list or hardware layer.
+     */
+    public void setDrawTracker(FrameTracker tracker) {
+        mDrawTracker = tracker;
+    }
+
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        if (mDrawTracker != null) {
+            mDrawTracker.onDraw();
+        }
+        super.dispatchDraw(canvas);
+    }
+
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
         int count = getChildCount();
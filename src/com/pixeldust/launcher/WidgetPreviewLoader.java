@@ -28,11 +28,8 @@ import android.util.Log;
 import android.util.LongSparseArray;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Set;
-import java.util.WeakHashMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 
@@ -41,7 +38,9 @@ import com.pixeldust.launcher.compat.ShortcutConfigActivityInfo;
 import com.pixeldust.launcher.compat.UserManagerCompat;
 import com.pixeldust.launcher.graphics.LauncherIcons;
 import com.pixeldust.launcher.model.WidgetItem;
+import com.pixeldust.launcher.util.BitmapPool;
 import com.pixeldust.launcher.util.ComponentKey;
+import com.pixeldust.launcher.util.Executors;
 import com.pixeldust.launcher.util.SQLiteCacheHelper;
 import com.pixeldust.launcher.util.Thunk;
 import com.pixeldust.launcher.widget.WidgetCell;
@@ -54,15 +53,9 @@ public class WidgetPreviewLoader {
 
     private final HashMap<String, long[]> mPackageVersions = new HashMap<>();
 
-    /**
-     * Weak reference objects, do not prevent their referents from being made finalizable,
-     * finalized, and then reclaimed.
-     * Note: synchronized block used for this variable is expensive and the block should always
-     * be posted to a background thread.
-     */
+    // Unused preview bitmaps are returned to, and borrowed from, the shared pool
     @Thunk
-    final Set<Bitmap> mUnusedBitmaps =
-            Collections.newSetFromMap(new WeakHashMap<Bitmap, Boolean>());
+    final BitmapPool mBitmapPool = BitmapPool.getInstance();
 
     private final Context mContext;
     private final IconCache mIconCache;
@@ -81,14 +74,14 @@ public class WidgetPreviewLoader {
         mWidgetManager = AppWidgetManagerCompat.getInstance(context);
         mUserManager = UserManagerCompat.getInstance(context);
         mDb = new CacheDb(context);
-        mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
+        mWorkerHandler = new Handler(Executors.WIDGET_PREVIEW_WRITER.getLooper());
         mProfileBadgeMargin = context.getResources()
                 .getDimensionPixelSize(R.dimen.profile_badge_margin);
     }
 
     /**
-     * Generates the widget preview on {@link AsyncTask#THREAD_POOL_EXECUTOR}. Must be
-     * called on UI thread
+     * Generates the widget preview on {@link Executors#WIDGET_PREVIEW_EXECUTOR}, latest request
+     * first. Must be called on UI thread
      *
      * @return a request id which can be used to cancel the request.
      */
@@ -98,7 +91,7 @@ public class WidgetPreviewLoader {
         WidgetCacheKey key = new WidgetCacheKey(item.componentName, item.user, size);
 
         PreviewLoadTask task = new PreviewLoadTask(key, item, previewWidth, previewHeight, caller);
-        task.executeOnExecutor(Utilities.THREAD_POOL_EXECUTOR);
+        task.executeOnExecutor(Executors.WIDGET_PREVIEW_EXECUTOR);
         return new PreviewLoadRequest(task);
     }
 
@@ -516,9 +509,7 @@ public class WidgetPreviewLoader {
                 mWorkerHandler.post(new Runnable() {
                     @Override
                     public void run() {
-                        synchronized (mUnusedBitmaps) {
-                            mUnusedBitmaps.add(mTask.mBitmapToRecycle);
-                        }
+                        mBitmapPool.put(mTask.mBitmapToRecycle);
                         mTask.mBitmapToRecycle = null;
                     }
                 });
@@ -553,29 +544,11 @@ public class WidgetPreviewLoader {
 
         @Override
         protected Bitmap doInBackground(Void... params) {
-            Bitmap unusedBitmap = null;
-
             // If already cancelled before this gets to run in the background, then return early
             if (isCancelled()) {
                 return null;
             }
-            synchronized (mUnusedBitmaps) {
-                // Check if we can re-use a bitmap
-                for (Bitmap candidate : mUnusedBitmaps) {
-                    if (candidate != null && candidate.isMutable() &&
-                            candidate.getWidth() == mPreviewWidth &&
-                            candidate.getHeight() == mPreviewHeight) {
-                        unusedBitmap = candidate;
-                        mUnusedBitmaps.remove(unusedBitmap);
-                        break;
-                    }
-                }
-            }
-
-            // creating a bitmap is expensive. Do not do this inside synchronized block.
-            if (unusedBitmap == null) {
-                unusedBitmap = Bitmap.createBitmap(mPreviewWidth, mPreviewHeight, Config.ARGB_8888);
-            }
+            Bitmap unusedBitmap = mBitmapPool.get(mPreviewWidth, mPreviewHeight, Config.ARGB_8888);
             // If cancelled now, don't bother reading the preview from the DB
             if (isCancelled()) {
                 return unusedBitmap;
@@ -593,6 +566,10 @@ public class WidgetPreviewLoader {
                 // it's not in the db... we need to generate it
                 preview = generatePreview(launcher, mInfo, unusedBitmap, mPreviewWidth, mPreviewHeight);
             }
+            if (preview != null && preview != unusedBitmap) {
+                // The preview was decoded or rendered into a new bitmap
+                mBitmapPool.put(unusedBitmap);
+            }
             return preview;
         }
 
@@ -612,10 +589,8 @@ public class WidgetPreviewLoader {
                             mBitmapToRecycle = preview;
                         } else {
                             // If we've already cancelled, then skip writing the bitmap to the DB
-                            // and manually add the bitmap back to the recycled set
-                            synchronized (mUnusedBitmaps) {
-                                mUnusedBitmaps.add(preview);
-                            }
+                            // and manually add the bitmap back to the pool
+                            mBitmapPool.put(preview);
                         }
                     }
                 });
@@ -629,17 +604,10 @@ public class WidgetPreviewLoader {
         @Override
         protected void onCancelled(final Bitmap preview) {
             // If we've cancelled while the task is running, then can return the bitmap to the
-            // recycled set immediately. Otherwise, it will be recycled after the preview is written
+            // pool immediately. Otherwise, it will be recycled after the preview is written
             // to disk.
             if (preview != null) {
-                mWorkerHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        synchronized (mUnusedBitmaps) {
-                            mUnusedBitmaps.add(preview);
-                        }
-                    }
-                });
+                mBitmapPool.put(preview);
             }
         }
     }
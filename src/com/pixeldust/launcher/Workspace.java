@@ -81,6 +81,8 @@ import com.pixeldust.launcher.graphics.DragPreviewProvider;
 import com.pixeldust.launcher.pixelify.ExperimentalQsbWidget;
 import com.pixeldust.launcher.popup.PopupContainerWithArrow;
 import com.pixeldust.launcher.shortcuts.ShortcutDragPreviewProvider;
+import com.pixeldust.launcher.util.BitmapPool;
+import com.pixeldust.launcher.util.FrameTracker;
 import com.pixeldust.launcher.util.ItemInfoMatcher;
 import com.pixeldust.launcher.util.LongArrayMap;
 import com.pixeldust.launcher.util.MultiStateAlphaController;
@@ -109,6 +111,10 @@ public class Workspace extends PagedView
 
     private static final int ADJACENT_SCREEN_DROP_DURATION = 300;
 
+    // How long the page layers are kept once the workspace is idle, so that a swipe or a state
+    // change following shortly doesn't have to render them again
+    private static final int LAYER_RELEASE_DELAY_MS = 1000;
+
     private static final boolean MAP_NO_RECURSE = false;
     private static final boolean MAP_RECURSE = true;
 
@@ -244,6 +250,15 @@ public class Workspace extends PagedView
 
     boolean mAnimatingViewIntoPlace = false;
     boolean mChildrenLayersEnabled = true;
+    private final Runnable mReleaseLayersRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!shouldEnableChildrenLayers(false)) {
+                releaseChildrenLayers();
+            }
+        }
+    };
+    private final FrameTracker mPageScrollTracker = new FrameTracker("Workspace page scroll");
 
     private boolean mStripScreensOnPageStopMoving = false;
 
@@ -535,6 +550,7 @@ public class Workspace extends PagedView
         cl.setOnInterceptTouchListener(this);
         cl.setClickable(true);
         cl.setImportantForAccessibility(IMPORTANT_FOR_ACCESSIBILITY_NO);
+        cl.getShortcutsAndWidgets().setDrawTracker(mPageScrollTracker);
         super.onChildViewAdded(parent, child);
     }
 
@@ -1209,6 +1225,7 @@ public class Workspace extends PagedView
         super.onPageBeginMoving();
 
         if (isHardwareAccelerated()) {
+            mPageScrollTracker.start(getDisplay() != null ? getDisplay().getRefreshRate() : 0);
             updateChildrenLayersEnabled(false);
         } else {
             if (mNextPage != INVALID_PAGE) {
@@ -1227,6 +1244,15 @@ public class Workspace extends PagedView
         super.onPageEndMoving();
 
         if (isHardwareAccelerated()) {
+            if (mPageScrollTracker.isTracking()) {
+                int layers = 0;
+                for (int i = 0; i < getPageCount(); i++) {
+                    if (((CellLayout) getPageAt(i)).hasHardwareLayer()) {
+                        layers++;
+                    }
+                }
+                mPageScrollTracker.stop(getPageCount() + " pages, " + layers + " layers");
+            }
             updateChildrenLayersEnabled(false);
         } else {
             clearChildrenCache();
@@ -1647,6 +1673,8 @@ public class Workspace extends PagedView
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
         mWallpaperOffset.setWindowToken(null);
+        removeCallbacks(mReleaseLayersRunnable);
+        mPageScrollTracker.stop();
     }
 
     protected void onResume() {
@@ -1758,38 +1786,55 @@ public class Workspace extends PagedView
     }
 
 
+    /**
+     * Pages are drawn from hardware layers while they move or change state as a whole, so that
+     * each frame only composites the layers instead of drawing every icon and widget again. The
+     * layers are kept for {@link #LAYER_RELEASE_DELAY_MS} once that ends, except during a drag
+     * where the pages change too often for their layers to be reused.
+     */
     @Thunk
     void updateChildrenLayersEnabled(boolean force) {
-        boolean small = mState == State.OVERVIEW || mIsSwitchingState;
-        boolean enableChildrenLayers = force || small || mAnimatingViewIntoPlace || isPageMoving();
+        boolean enableChildrenLayers = shouldEnableChildrenLayers(force);
+        if (enableChildrenLayers) {
+            removeCallbacks(mReleaseLayersRunnable);
+        }
 
         if (enableChildrenLayers != mChildrenLayersEnabled) {
-            mChildrenLayersEnabled = enableChildrenLayers;
-            if (mChildrenLayersEnabled) {
+            if (enableChildrenLayers) {
+                mChildrenLayersEnabled = true;
                 enableHwLayersOnVisiblePages();
+            } else if (mDragController != null && mDragController.isDragging()) {
+                releaseChildrenLayers();
             } else {
-                for (int i = 0; i < getPageCount(); i++) {
-                    final CellLayout cl = (CellLayout) getChildAt(i);
-                    cl.enableHardwareLayer(false);
-                }
+                removeCallbacks(mReleaseLayersRunnable);
+                postDelayed(mReleaseLayersRunnable, LAYER_RELEASE_DELAY_MS);
             }
         }
     }
 
+    private boolean shouldEnableChildrenLayers(boolean force) {
+        boolean small = mState == State.OVERVIEW || mIsSwitchingState;
+        return force || small || mAnimatingViewIntoPlace || isPageMoving();
+    }
+
+    @Thunk
+    void releaseChildrenLayers() {
+        removeCallbacks(mReleaseLayersRunnable);
+        mChildrenLayersEnabled = false;
+        for (int i = 0; i < getPageCount(); i++) {
+            final CellLayout cl = (CellLayout) getChildAt(i);
+            cl.enableHardwareLayer(false);
+        }
+    }
+
     private void enableHwLayersOnVisiblePages() {
         if (mChildrenLayersEnabled) {
             final int screenCount = getChildCount();
             getVisiblePages(mTempVisiblePagesRange);
-            int leftScreen = mTempVisiblePagesRange[0];
-            int rightScreen = mTempVisiblePagesRange[1];
-            if (leftScreen == rightScreen) {
-                // make sure we're caching at least two pages always
-                if (rightScreen < screenCount - 1) {
-                    rightScreen++;
-                } else if (leftScreen > 0) {
-                    leftScreen--;
-                }
-            }
+            // Also keep the layers of the pages next to the visible ones, so that they are ready
+            // when scrolled into view instead of being rendered on that frame
+            int leftScreen = Math.max(mTempVisiblePagesRange[0] - 1, 0);
+            int rightScreen = Math.min(mTempVisiblePagesRange[1] + 1, screenCount - 1);
 
             for (int i = 0; i < screenCount; i++) {
                 final CellLayout layout = (CellLayout) getPageAt(i);
@@ -2136,7 +2181,8 @@ public class Workspace extends PagedView
         }
         DragView startDrag = this.mDragController.startDrag(createDragBitmap, i2, i3, source, dragObject, point, rect, scaleAndPosition, dragOptions);
         startDrag.setIntrinsicIconScaleFactor(source.getIntrinsicIconScaleFactor());
-        createDragBitmap.recycle();
+        // The drag view keeps its own copy
+        BitmapPool.getInstance().put(createDragBitmap);
         return startDrag;
     }
 
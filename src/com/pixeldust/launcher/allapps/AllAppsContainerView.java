@@ -109,6 +109,14 @@ public class AllAppsContainerView extends BaseContainerView implements DragSourc
 
     private AllAppsBackground mAllAppsBackground;
 
+    // Run once the adapter shows new search results, as they are built off the UI thread
+    private final Runnable mOnSearchResultsShown = new Runnable() {
+        @Override
+        public void run() {
+            mAppsRecyclerView.onSearchResultsChanged();
+        }
+    };
+
     public AllAppsContainerView(Context context) {
         this(context, null);
     }
@@ -312,6 +320,7 @@ public class AllAppsContainerView extends BaseContainerView implements DragSourc
             mAppsRecyclerView.setNumAppsPerRow(grid, mNumAppsPerRow);
             mAdapter.setNumAppsPerRow(mNumAppsPerRow);
             mApps.setNumAppsPerRow(mNumAppsPerRow, new FullMergeAlgorithm());
+            mAppsRecyclerView.warmUpRecycledViewPool(mAdapter);
             if (mNumAppsPerRow > 0) {
                 int rvPadding = mAppsRecyclerView.getPaddingStart(); // Assumes symmetry
                 final int thumbMaxWidth =
@@ -562,18 +571,14 @@ public class AllAppsContainerView extends BaseContainerView implements DragSourc
     @Override
     public void onSearchResult(String query, ArrayList<ComponentKey> apps) {
         if (apps != null) {
-            if (mApps.setOrderedFilter(apps)) {
-                mAppsRecyclerView.onSearchResultsChanged();
-            }
+            mApps.setOrderedFilter(apps, mOnSearchResultsShown);
             mAdapter.setLastSearchQuery(query);
         }
     }
 
     @Override
     public void clearSearchResult() {
-        if (mApps.setOrderedFilter(null)) {
-            mAppsRecyclerView.onSearchResultsChanged();
-        }
+        mApps.setOrderedFilter(null, mOnSearchResultsShown);
 
         // Clear the search query
         mSearchQueryBuilder.clear();
@@ -20,20 +20,29 @@ import android.graphics.Canvas;
 import android.support.v7.widget.RecyclerView;
 import android.util.AttributeSet;
 import android.util.SparseIntArray;
+import android.view.Display;
 import android.view.View;
 
 import java.util.List;
 
 import com.pixeldust.launcher.BaseRecyclerView;
 import com.pixeldust.launcher.BubbleTextView;
+import com.pixeldust.launcher.DeferredHandler;
 import com.pixeldust.launcher.DeviceProfile;
 import com.pixeldust.launcher.Launcher;
+import com.pixeldust.launcher.util.FrameTracker;
+import com.pixeldust.launcher.util.Thunk;
 
 /**
  * A RecyclerView with custom fast scroll support for the all apps view.
  */
 public class AllAppsRecyclerView extends BaseRecyclerView {
 
+    // The number of icons created into the recycled view pool per idle pass
+    private static final int WARM_UP_BATCH_SIZE = 4;
+    // The default size of the RecyclerView item view cache
+    private static final int DEFAULT_ITEM_VIEW_CACHE_SIZE = 2;
+
     private AlphabeticalAppsList mApps;
     private AllAppsFastScrollHelper mFastScrollHelper;
     private int mNumAppsPerRow;
@@ -44,6 +53,15 @@ public class AllAppsRecyclerView extends BaseRecyclerView {
 
     private HeaderElevationController mElevationController;
 
+    private final DeferredHandler mIdleHandler = new DeferredHandler();
+    @Thunk AllAppsGridAdapter mWarmUpAdapter;
+    @Thunk int mWarmUpIconCount;
+    @Thunk int mMaxPooledIcons;
+    @Thunk boolean mWarmUpScheduled;
+
+    private final FrameTracker mFrameTracker = new FrameTracker("Fast scroll");
+    private boolean mFastScrolling;
+
     public AllAppsRecyclerView(Context context) {
         this(context, null);
     }
@@ -84,8 +102,48 @@ public class AllAppsRecyclerView extends BaseRecyclerView {
         pool.setMaxRecycledViews(AllAppsGridAdapter.VIEW_TYPE_SEARCH_MARKET, 1);
         pool.setMaxRecycledViews(AllAppsGridAdapter.VIEW_TYPE_ICON, approxRows * mNumAppsPerRow);
         pool.setMaxRecycledViews(AllAppsGridAdapter.VIEW_TYPE_SECTION_BREAK, approxRows);
+        mMaxPooledIcons = approxRows * mNumAppsPerRow;
+    }
+
+    /**
+     * Fills the recycled view pool with icons while the UI thread is idle, a few at a time, so
+     * that neither opening all apps nor fast scrolling through it has to inflate them. Must be
+     * called after the adapter is set, as setting an adapter can clear the pool, and again when
+     * the number of apps per row changes.
+     */
+    public void warmUpRecycledViewPool(AllAppsGridAdapter adapter) {
+        mWarmUpAdapter = adapter;
+        // The pool may have been cleared or resized since the last warm up, so fill it again.
+        // Icons beyond the pool's limit are dropped by the pool.
+        mWarmUpIconCount = 0;
+        scheduleWarmUp();
+    }
+
+    @Thunk
+    void scheduleWarmUp() {
+        if (!mWarmUpScheduled && mWarmUpIconCount < mMaxPooledIcons) {
+            mWarmUpScheduled = true;
+            mIdleHandler.postIdle(mWarmUpRunnable);
+        }
     }
 
+    private final Runnable mWarmUpRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mWarmUpScheduled = false;
+            if (mWarmUpAdapter == null || getAdapter() != mWarmUpAdapter) {
+                return;
+            }
+            RecyclerView.RecycledViewPool pool = getRecycledViewPool();
+            for (int i = 0; i < WARM_UP_BATCH_SIZE && mWarmUpIconCount < mMaxPooledIcons; i++) {
+                pool.putRecycledView(mWarmUpAdapter.createViewHolder(AllAppsRecyclerView.this,
+                        AllAppsGridAdapter.VIEW_TYPE_ICON));
+                mWarmUpIconCount++;
+            }
+            scheduleWarmUp();
+        }
+    };
+
     /**
      * Ensures that we can present a stable scrollbar for views of varying types by pre-measuring
      * all the different view types.
@@ -176,6 +234,7 @@ public class AllAppsRecyclerView extends BaseRecyclerView {
 
         // Stop the scroller if it is scrolling
         stopScroll();
+        onFastScrollStarted();
 
         // Find the fastscroll section that maps to this touch fraction
         List<AlphabeticalAppsList.FastScrollSectionInfo> fastScrollSections =
@@ -196,19 +255,68 @@ public class AllAppsRecyclerView extends BaseRecyclerView {
         return lastInfo.sectionName;
     }
 
+    /**
+     * Called as the user starts dragging the fast scroller. Fast scrolling jumps between sections
+     * rather than scrolling through the rows, so the rows prefetched ahead of the scroll direction
+     * and the views cached by position would be wasted: both are turned off until it completes,
+     * to keep the views flowing back into the recycled view pool.
+     */
+    private void onFastScrollStarted() {
+        if (mFastScrolling) {
+            return;
+        }
+        mFastScrolling = true;
+        if (getLayoutManager() != null) {
+            getLayoutManager().setItemPrefetchEnabled(false);
+        }
+        setItemViewCacheSize(0);
+        Display display = getDisplay();
+        mFrameTracker.start(display != null ? display.getRefreshRate() : 0);
+    }
+
     @Override
     public void onFastScrollCompleted() {
         super.onFastScrollCompleted();
         mFastScrollHelper.onFastScrollCompleted();
+        if (mFastScrolling) {
+            mFastScrolling = false;
+            if (getLayoutManager() != null) {
+                getLayoutManager().setItemPrefetchEnabled(true);
+            }
+            setItemViewCacheSize(DEFAULT_ITEM_VIEW_CACHE_SIZE);
+            mFrameTracker.stop();
+        }
     }
 
     @Override
     public void setAdapter(Adapter adapter) {
         super.setAdapter(adapter);
+        // Setting an adapter can clear the recycled view pool
+        mWarmUpIconCount = 0;
         adapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
             public void onChanged() {
                 mCachedScrollPositions.clear();
             }
+
+            @Override
+            public void onItemRangeChanged(int positionStart, int itemCount) {
+                mCachedScrollPositions.clear();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                mCachedScrollPositions.clear();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                mCachedScrollPositions.clear();
+            }
+
+            @Override
+            public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+                mCachedScrollPositions.clear();
+            }
         });
         mFastScrollHelper.onSetAdapter((AllAppsGridAdapter) adapter);
     }
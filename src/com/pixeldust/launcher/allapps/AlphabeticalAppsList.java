@@ -16,20 +16,25 @@
 package com.pixeldust.launcher.allapps;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
 
 import com.pixeldust.launcher.AppInfo;
-import com.pixeldust.launcher.Launcher;
-import com.pixeldust.launcher.compat.AlphabeticIndexCompat;
 import com.pixeldust.launcher.model.AppNameComparator;
 import com.pixeldust.launcher.util.ComponentKey;
+import com.pixeldust.launcher.util.Executors;
+import com.pixeldust.launcher.util.Thunk;
 
 /**
  * The alphabetically sorted list of applications.
@@ -80,8 +85,8 @@ public class AlphabeticalAppsList {
         /**
          * App-only properties
          */
-        // The section name of this app.  Note that there can be multiple items with different
-        // sectionNames in the same section
+        // The section name of this app, or of this section break.  Note that there can be
+        // multiple items with different sectionNames in the same section
         public String sectionName = null;
         // The index of this app in the section
         public int sectionAppIndex = -1;
@@ -92,10 +97,12 @@ public class AlphabeticalAppsList {
         // The associated AppInfo for the app
         public AppInfo appInfo = null;
 
-        public static AdapterItem asSectionBreak(int pos, SectionInfo section) {
+        public static AdapterItem asSectionBreak(int pos, String sectionName,
+                                                 SectionInfo section) {
             AdapterItem item = new AdapterItem();
             item.viewType = AllAppsGridAdapter.VIEW_TYPE_SECTION_BREAK;
             item.position = pos;
+            item.sectionName = sectionName;
             section.sectionBreakItem = item;
             return item;
         }
@@ -141,39 +148,102 @@ public class AlphabeticalAppsList {
     }
 
     /**
-     * Common interface for different merging strategies.
+     * Common interface for different merging strategies. Called on a background thread.
      */
     public interface MergeAlgorithm {
         boolean continueMerging(SectionInfo section);
     }
 
-    private Launcher mLauncher;
+    /**
+     * The adapter items computed for a set of apps and filter. A snapshot is built off the UI
+     * thread and never modified once it is published to the UI thread.
+     */
+    private static class Snapshot {
+        final List<AdapterItem> adapterItems;
+        final List<AppInfo> filteredApps;
+        final List<FastScrollSectionInfo> fastScrollerSections;
+        final int numAppRows;
+        final boolean hasFilter;
+
+        Snapshot(List<AdapterItem> adapterItems, List<AppInfo> filteredApps,
+                 List<FastScrollSectionInfo> fastScrollerSections, int numAppRows,
+                 boolean hasFilter) {
+            this.adapterItems = Collections.unmodifiableList(adapterItems);
+            this.filteredApps = Collections.unmodifiableList(filteredApps);
+            this.fastScrollerSections = Collections.unmodifiableList(fastScrollerSections);
+            this.numAppRows = numAppRows;
+            this.hasFilter = hasFilter;
+        }
+    }
+
+    /**
+     * The state of the list needed to build a snapshot, captured on the UI thread.
+     */
+    private static class SnapshotRequest {
+        final int id;
+        final List<AppInfo> apps;
+        final String[] sectionNames;
+        final boolean hasFilter;
+        final int numAppsPerRow;
+        final MergeAlgorithm mergeAlgorithm;
+        final IdentityHashMap<AppInfo, Boolean> changedApps;
+        final boolean fullRefresh;
+        // Run on the UI thread once a snapshot including this request is swapped in, or null
+        final Runnable onApplied;
+
+        SnapshotRequest(int id, List<AppInfo> apps, String[] sectionNames, boolean hasFilter,
+                        int numAppsPerRow, MergeAlgorithm mergeAlgorithm,
+                        IdentityHashMap<AppInfo, Boolean> changedApps, boolean fullRefresh,
+                        Runnable onApplied) {
+            this.id = id;
+            this.apps = apps;
+            this.sectionNames = sectionNames;
+            this.hasFilter = hasFilter;
+            this.numAppsPerRow = numAppsPerRow;
+            this.mergeAlgorithm = mergeAlgorithm;
+            this.changedApps = changedApps;
+            this.fullRefresh = fullRefresh;
+            this.onApplied = onApplied;
+        }
+    }
+
+    private static final Snapshot EMPTY_SNAPSHOT = new Snapshot(new ArrayList<AdapterItem>(),
+            new ArrayList<AppInfo>(), new ArrayList<FastScrollSectionInfo>(), 0, false);
+
+    private final Context mContext;
 
     // The set of apps from the system
     private final List<AppInfo> mApps = new ArrayList<>();
     private final HashMap<ComponentKey, AppInfo> mComponentToAppMap = new HashMap<>();
 
-    // The set of filtered apps with the current filter
-    private List<AppInfo> mFilteredApps = new ArrayList<>();
-    // The current set of adapter items
-    private List<AdapterItem> mAdapterItems = new ArrayList<>();
-    // The set of sections for the apps with the current filter
-    private List<SectionInfo> mSections = new ArrayList<>();
-    // The set of sections that we allow fast-scrolling to (includes non-merged sections)
-    private List<FastScrollSectionInfo> mFastScrollerSections = new ArrayList<>();
+    // The adapter items shown by the adapter, swapped on the UI thread as new snapshots arrive
+    @Thunk Snapshot mSnapshot = EMPTY_SNAPSHOT;
+    @Thunk final Handler mUiHandler = new Handler(Looper.getMainLooper());
+    // The id of the last requested snapshot, older requests are skipped if not started yet
+    @Thunk volatile int mLatestRequestId;
+
+    // Only accessed on the apps list thread: the last snapshot posted to the UI thread, which
+    // the next one is diffed against, and the changes and callbacks of the skipped requests.
+    @Thunk Snapshot mLastPostedSnapshot = EMPTY_SNAPSHOT;
+    @Thunk final IdentityHashMap<AppInfo, Boolean> mSkippedChangedApps = new IdentityHashMap<>();
+    @Thunk boolean mSkippedFullRefresh;
+    @Thunk final ArrayList<Runnable> mSkippedCallbacks = new ArrayList<>();
+
     // The of ordered component names as a result of a search query
     private ArrayList<ComponentKey> mSearchResults;
-    private HashMap<CharSequence, String> mCachedSectionNames = new HashMap<>();
-    private AllAppsGridAdapter mAdapter;
-    private AlphabeticIndexCompat mIndexer;
+    // The search index of all the apps, kept in sync with mApps
+    private final AppSearchIndex mSearchIndex = new AppSearchIndex();
+    // The apps whose content changed since the last snapshot was requested
+    private final IdentityHashMap<AppInfo, Boolean> mChangedApps = new IdentityHashMap<>();
+    // Whether the next snapshot should rebind all the items, rather than dispatch a diff
+    private boolean mFullRefreshNeeded = true;
+    @Thunk RecyclerView.Adapter mAdapter;
     private AppNameComparator mAppNameComparator;
     private MergeAlgorithm mMergeAlgorithm;
     private int mNumAppsPerRow;
-    private int mNumAppRowsInAdapter;
 
     public AlphabeticalAppsList(Context context) {
-        mLauncher = Launcher.getLauncher(context);
-        mIndexer = new AlphabeticIndexCompat(context);
+        mContext = context;
         mAppNameComparator = new AppNameComparator(context);
     }
 
@@ -184,13 +254,14 @@ public class AlphabeticalAppsList {
         mNumAppsPerRow = numAppsPerRow;
         mMergeAlgorithm = mergeAlgorithm;
 
+        mFullRefreshNeeded = true;
         updateAdapterItems();
     }
 
     /**
      * Sets the adapter to notify when this dataset changes.
      */
-    public void setAdapter(AllAppsGridAdapter adapter) {
+    public void setAdapter(RecyclerView.Adapter adapter) {
         mAdapter = adapter;
     }
 
@@ -201,56 +272,74 @@ public class AlphabeticalAppsList {
         return mApps;
     }
 
+    /**
+     * Returns the search index of all the apps.
+     */
+    public AppSearchIndex getSearchIndex() {
+        return mSearchIndex;
+    }
+
     /**
      * Returns fast scroller sections of all the current filtered applications.
      */
     public List<FastScrollSectionInfo> getFastScrollerSections() {
-        return mFastScrollerSections;
+        return mSnapshot.fastScrollerSections;
     }
 
     /**
      * Returns the current filtered list of applications broken down into their sections.
      */
     public List<AdapterItem> getAdapterItems() {
-        return mAdapterItems;
+        return mSnapshot.adapterItems;
     }
 
     /**
      * Returns the number of rows of applications
      */
     public int getNumAppRows() {
-        return mNumAppRowsInAdapter;
+        return mSnapshot.numAppRows;
     }
 
     /**
      * Returns the number of applications in this list.
      */
     public int getNumFilteredApps() {
-        return mFilteredApps.size();
+        return mSnapshot.filteredApps.size();
     }
 
     /**
-     * Returns whether there are is a filter set.
+     * Returns whether the adapter items are filtered.
      */
     public boolean hasFilter() {
-        return (mSearchResults != null);
+        return mSnapshot.hasFilter;
     }
 
     /**
      * Returns whether there are no filtered results.
      */
     public boolean hasNoFilteredResults() {
-        return (mSearchResults != null) && mFilteredApps.isEmpty();
+        return mSnapshot.hasFilter && mSnapshot.filteredApps.isEmpty();
     }
 
     /**
      * Sets the sorted list of filtered components.
      */
     public boolean setOrderedFilter(ArrayList<ComponentKey> f) {
+        return setOrderedFilter(f, null);
+    }
+
+    /**
+     * Sets the sorted list of filtered components.
+     *
+     * @param onResultsChanged run on the UI thread once the new results are shown by the
+     *                         adapter, if they differ from the previous ones
+     */
+    public boolean setOrderedFilter(ArrayList<ComponentKey> f, Runnable onResultsChanged) {
         if (mSearchResults != f) {
             boolean same = mSearchResults != null && mSearchResults.equals(f);
             mSearchResults = f;
-            updateAdapterItems();
+            mFullRefreshNeeded = true;
+            updateAdapterItems(same ? null : onResultsChanged);
             return !same;
         }
         return false;
@@ -261,7 +350,16 @@ public class AlphabeticalAppsList {
      */
     public void setApps(List<AppInfo> apps) {
         mComponentToAppMap.clear();
-        addApps(apps);
+        for (AppInfo app : apps) {
+            mComponentToAppMap.put(app.toComponentKey(), app);
+        }
+        mApps.clear();
+        mApps.addAll(mComponentToAppMap.values());
+        mAppNameComparator.updateSortKeys(mApps);
+        Collections.sort(mApps, mAppNameComparator.getAppInfoComparator());
+        mSearchIndex.setApps(mApps);
+        mFullRefreshNeeded = true;
+        onAppsUpdated();
     }
 
     /**
@@ -275,9 +373,16 @@ public class AlphabeticalAppsList {
      * Updates existing apps in the list
      */
     public void updateApps(List<AppInfo> apps) {
+        mAppNameComparator.updateSortKeys(apps);
         for (AppInfo app : apps) {
-            mComponentToAppMap.put(app.toComponentKey(), app);
+            AppInfo oldApp = mComponentToAppMap.put(app.toComponentKey(), app);
+            if (oldApp != null) {
+                removeFromSortedApps(oldApp);
+            }
+            insertIntoSortedApps(app);
+            mChangedApps.put(app, Boolean.TRUE);
         }
+        mSearchIndex.addOrUpdateApps(apps);
         onAppsUpdated();
     }
 
@@ -286,32 +391,54 @@ public class AlphabeticalAppsList {
      */
     public void removeApps(List<AppInfo> apps) {
         for (AppInfo app : apps) {
-            mComponentToAppMap.remove(app.toComponentKey());
+            AppInfo oldApp = mComponentToAppMap.remove(app.toComponentKey());
+            if (oldApp != null) {
+                removeFromSortedApps(oldApp);
+            }
         }
+        mSearchIndex.removeApps(apps);
         onAppsUpdated();
     }
 
+    /**
+     * Inserts the app in mApps, keeping it sorted.
+     */
+    private void insertIntoSortedApps(AppInfo app) {
+        int index = Collections.binarySearch(mApps, app, mAppNameComparator.getAppInfoComparator());
+        mApps.add(index < 0 ? -index - 1 : index, app);
+    }
+
+    private void removeFromSortedApps(AppInfo app) {
+        // The app may have been updated in place, so its title can't be used to find it.
+        for (int i = mApps.size() - 1; i >= 0; i--) {
+            if (mApps.get(i) == app) {
+                mApps.remove(i);
+                return;
+            }
+        }
+    }
+
     /**
      * Updates internals when the set of apps are updated.
      */
     private void onAppsUpdated() {
-        // Sort the list of apps
-        mApps.clear();
-        mApps.addAll(mComponentToAppMap.values());
-        Collections.sort(mApps, mAppNameComparator.getAppInfoComparator());
-
         // As a special case for some languages (currently only Simplified Chinese), we may need to
         // coalesce sections
-        Locale curLocale = mLauncher.getResources().getConfiguration().locale;
+        Locale curLocale = mContext.getResources().getConfiguration().locale;
         TreeMap<String, ArrayList<AppInfo>> sectionMap;
         boolean localeRequiresSectionSorting = curLocale.equals(Locale.SIMPLIFIED_CHINESE);
         if (localeRequiresSectionSorting) {
+            // mApps is in section order rather than in title order, so it needs a full sort.
+            mApps.clear();
+            mApps.addAll(mComponentToAppMap.values());
+            mAppNameComparator.updateSortKeys(mApps);
+            Collections.sort(mApps, mAppNameComparator.getAppInfoComparator());
+
             // Compute the section headers.  We use a TreeMap with the section name comparator to
             // ensure that the sections are ordered when we iterate over it later
             sectionMap = new TreeMap<>(mAppNameComparator.getSectionNameComparator());
             for (AppInfo info : mApps) {
-                // Add the section to the cache
-                String sectionName = getAndUpdateCachedSectionName(info.title);
+                String sectionName = mAppNameComparator.getSectionName(info);
 
                 // Add it to the mapping
                 ArrayList<AppInfo> sectionApps = sectionMap.get(sectionName);
@@ -330,54 +457,121 @@ public class AlphabeticalAppsList {
 
             mApps.clear();
             mApps.addAll(allApps);
-        } else {
-            // Just compute the section headers for use below
-            for (AppInfo info : mApps) {
-                // Add the section to the cache
-                getAndUpdateCachedSectionName(info.title);
-            }
         }
+        mSearchIndex.updateOrder(mApps);
 
         // Recompose the set of adapter items from the current set of apps
         updateAdapterItems();
     }
 
     /**
-     * Updates the set of filtered apps with the current filter.  At this point, we expect
-     * mCachedSectionNames to have been calculated for the set of all apps in mApps.
+     * Requests new adapter items for the current apps and filter. At this point, we expect the
+     * sort keys, and so the section names, to have been calculated for all the apps in mApps.
+     * <p>
+     * The items are built, and diffed with the ones shown, on the apps list thread. The result
+     * is then swapped in and dispatched to the adapter on the UI thread, in request order.
      */
     private void updateAdapterItems() {
+        updateAdapterItems(null);
+    }
+
+    private void updateAdapterItems(Runnable onApplied) {
+        List<AppInfo> apps = getFiltersAppInfos();
+        String[] sectionNames = new String[apps.size()];
+        for (int i = 0; i < sectionNames.length; i++) {
+            sectionNames[i] = mAppNameComparator.getSectionName(apps.get(i));
+        }
+        final SnapshotRequest request = new SnapshotRequest(++mLatestRequestId, apps,
+                sectionNames, mSearchResults != null, mNumAppsPerRow, mMergeAlgorithm,
+                new IdentityHashMap<>(mChangedApps), mFullRefreshNeeded, onApplied);
+        mChangedApps.clear();
+        mFullRefreshNeeded = false;
+
+        Executors.APPS_LIST_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                computeSnapshot(request);
+            }
+        });
+    }
+
+    @Thunk
+    void computeSnapshot(SnapshotRequest request) {
+        mSkippedFullRefresh |= request.fullRefresh;
+        mSkippedChangedApps.putAll(request.changedApps);
+        if (request.onApplied != null) {
+            mSkippedCallbacks.add(request.onApplied);
+        }
+        if (request.id != mLatestRequestId) {
+            // A newer request is pending, which will include the changes of this one
+            return;
+        }
+
+        final Snapshot snapshot = buildSnapshot(request);
+        final DiffUtil.DiffResult diff;
+        if (mSkippedFullRefresh || mLastPostedSnapshot.adapterItems.isEmpty()) {
+            diff = null;
+        } else {
+            diff = DiffUtil.calculateDiff(new AdapterItemDiffCallback(
+                    mLastPostedSnapshot.adapterItems, snapshot.adapterItems,
+                    mSkippedChangedApps), false);
+        }
+        mLastPostedSnapshot = snapshot;
+        mSkippedChangedApps.clear();
+        mSkippedFullRefresh = false;
+        final Runnable[] callbacks = mSkippedCallbacks.toArray(new Runnable[0]);
+        mSkippedCallbacks.clear();
+
+        mUiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mSnapshot = snapshot;
+                if (mAdapter != null) {
+                    if (diff == null) {
+                        mAdapter.notifyDataSetChanged();
+                    } else {
+                        diff.dispatchUpdatesTo(mAdapter);
+                    }
+                }
+                for (Runnable callback : callbacks) {
+                    callback.run();
+                }
+            }
+        });
+    }
+
+    private static Snapshot buildSnapshot(SnapshotRequest request) {
+        List<AppInfo> filteredApps = new ArrayList<>(request.apps.size());
+        List<AdapterItem> adapterItems = new ArrayList<>();
+        List<SectionInfo> sections = new ArrayList<>();
+        List<FastScrollSectionInfo> fastScrollerSections = new ArrayList<>();
         SectionInfo lastSectionInfo = null;
         String lastSectionName = null;
         FastScrollSectionInfo lastFastScrollerSectionInfo = null;
         int position = 0;
 
-        // Prepare to update the list of sections, filtered apps, etc.
-        mFilteredApps.clear();
-        mFastScrollerSections.clear();
-        mAdapterItems.clear();
-        mSections.clear();
-
         // Add the search divider
-        mAdapterItems.add(AdapterItem.asSearchDivder(position++));
+        adapterItems.add(AdapterItem.asSearchDivder(position++));
 
         // Recreate the filtered and sectioned apps (for convenience for the grid layout) from the
         // ordered set of sections
-        for (AppInfo info : getFiltersAppInfos()) {
-            String sectionName = getAndUpdateCachedSectionName(info.title);
+        for (int i = 0; i < request.apps.size(); i++) {
+            AppInfo info = request.apps.get(i);
+            String sectionName = request.sectionNames[i];
 
             // Create a new section if the section names do not match
             if (lastSectionInfo == null || !sectionName.equals(lastSectionName)) {
                 lastSectionName = sectionName;
                 lastSectionInfo = new SectionInfo();
                 lastFastScrollerSectionInfo = new FastScrollSectionInfo(sectionName);
-                mSections.add(lastSectionInfo);
-                mFastScrollerSections.add(lastFastScrollerSectionInfo);
+                sections.add(lastSectionInfo);
+                fastScrollerSections.add(lastFastScrollerSectionInfo);
 
                 // Create a new section item to break the flow of items in the list
-                if (!hasFilter()) {
-                    AdapterItem sectionItem = AdapterItem.asSectionBreak(position++, lastSectionInfo);
-                    mAdapterItems.add(sectionItem);
+                if (!request.hasFilter) {
+                    AdapterItem sectionItem = AdapterItem.asSectionBreak(position++, sectionName,
+                            lastSectionInfo);
+                    adapterItems.add(sectionItem);
                 }
             }
 
@@ -388,35 +582,37 @@ public class AlphabeticalAppsList {
                 lastSectionInfo.firstAppItem = appItem;
                 lastFastScrollerSectionInfo.fastScrollToItem = appItem;
             }
-            mAdapterItems.add(appItem);
-            mFilteredApps.add(info);
+            adapterItems.add(appItem);
+            filteredApps.add(info);
         }
 
         // Append the search market item if we are currently searching
-        if (hasFilter()) {
-            if (hasNoFilteredResults()) {
-                mAdapterItems.add(AdapterItem.asEmptySearch(position++));
+        if (request.hasFilter) {
+            if (filteredApps.isEmpty()) {
+                adapterItems.add(AdapterItem.asEmptySearch(position++));
             } else {
-                mAdapterItems.add(AdapterItem.asMarketDivider(position++));
+                adapterItems.add(AdapterItem.asMarketDivider(position++));
             }
-            mAdapterItems.add(AdapterItem.asMarketSearch(position++));
+            adapterItems.add(AdapterItem.asMarketSearch(position++));
         }
 
         // Merge multiple sections together as requested by the merge strategy for this device
-        mergeSections();
+        mergeSections(request, sections, adapterItems);
 
-        if (mNumAppsPerRow != 0) {
+        int numAppRows = 0;
+        int numAppsPerRow = request.numAppsPerRow;
+        if (numAppsPerRow != 0) {
             // Update the number of rows in the adapter after we do all the merging (otherwise, we
             // would have to shift the values again)
             int numAppsInSection = 0;
             int numAppsInRow = 0;
             int rowIndex = -1;
-            for (AdapterItem item : mAdapterItems) {
+            for (AdapterItem item : adapterItems) {
                 item.rowIndex = 0;
                 if (AllAppsGridAdapter.isDividerViewType(item.viewType)) {
                     numAppsInSection = 0;
                 } else if (AllAppsGridAdapter.isIconViewType(item.viewType)) {
-                    if (numAppsInSection % mNumAppsPerRow == 0) {
+                    if (numAppsInSection % numAppsPerRow == 0) {
                         numAppsInRow = 0;
                         rowIndex++;
                     }
@@ -426,12 +622,12 @@ public class AlphabeticalAppsList {
                     numAppsInRow++;
                 }
             }
-            mNumAppRowsInAdapter = rowIndex + 1;
+            numAppRows = rowIndex + 1;
 
             // Pre-calculate all the fast scroller fractions
-            float perSectionTouchFraction = 1f / mFastScrollerSections.size();
+            float perSectionTouchFraction = 1f / fastScrollerSections.size();
             float cumulativeTouchFraction = 0f;
-            for (FastScrollSectionInfo info : mFastScrollerSections) {
+            for (FastScrollSectionInfo info : fastScrollerSections) {
                 AdapterItem item = info.fastScrollToItem;
                 if (!AllAppsGridAdapter.isIconViewType(item.viewType)) {
                     info.touchFraction = 0f;
@@ -441,16 +637,66 @@ public class AlphabeticalAppsList {
                 cumulativeTouchFraction += perSectionTouchFraction;
             }
         }
+        return new Snapshot(adapterItems, filteredApps, fastScrollerSections, numAppRows,
+                request.hasFilter);
+    }
+
+    /**
+     * Matches adapter items by the app or section they show, so that a package event only
+     * rebinds the items it affects.
+     */
+    private static class AdapterItemDiffCallback extends DiffUtil.Callback {
+
+        private final List<AdapterItem> mOldItems;
+        private final List<AdapterItem> mNewItems;
+        private final IdentityHashMap<AppInfo, Boolean> mChangedApps;
+
+        AdapterItemDiffCallback(List<AdapterItem> oldItems, List<AdapterItem> newItems,
+                                IdentityHashMap<AppInfo, Boolean> changedApps) {
+            mOldItems = oldItems;
+            mNewItems = newItems;
+            mChangedApps = changedApps;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldItems.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewItems.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            AdapterItem oldItem = mOldItems.get(oldItemPosition);
+            AdapterItem newItem = mNewItems.get(newItemPosition);
+            if (oldItem.viewType != newItem.viewType) {
+                return false;
+            }
+            switch (newItem.viewType) {
+                case AllAppsGridAdapter.VIEW_TYPE_ICON:
+                    return oldItem.appInfo.componentName.equals(newItem.appInfo.componentName)
+                            && oldItem.appInfo.user.equals(newItem.appInfo.user);
+                case AllAppsGridAdapter.VIEW_TYPE_SECTION_BREAK:
+                    return oldItem.sectionName.equals(newItem.sectionName);
+                default:
+                    return true;
+            }
+        }
 
-        // Refresh the recycler view
-        if (mAdapter != null) {
-            mAdapter.notifyDataSetChanged();
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            AppInfo newApp = mNewItems.get(newItemPosition).appInfo;
+            return newApp == null || (mOldItems.get(oldItemPosition).appInfo == newApp
+                    && !mChangedApps.containsKey(newApp));
         }
     }
 
     private List<AppInfo> getFiltersAppInfos() {
         if (mSearchResults == null) {
-            return mApps;
+            return new ArrayList<>(mApps);
         }
 
         ArrayList<AppInfo> result = new ArrayList<>();
@@ -466,38 +712,40 @@ public class AlphabeticalAppsList {
     /**
      * Merges multiple sections to reduce visual raggedness.
      */
-    private void mergeSections() {
+    private static void mergeSections(SnapshotRequest request, List<SectionInfo> sections,
+                                      List<AdapterItem> adapterItems) {
+        MergeAlgorithm mergeAlgorithm = request.mergeAlgorithm;
         // Ignore merging until we have an algorithm and a valid row size
-        if (mMergeAlgorithm == null || mNumAppsPerRow == 0) {
+        if (mergeAlgorithm == null || request.numAppsPerRow == 0) {
             return;
         }
 
         // Go through each section and try and merge some of the sections
-        if (!hasFilter()) {
-            for (int i = 0; i < mSections.size() - 1; i++) {
-                SectionInfo section = mSections.get(i);
+        if (!request.hasFilter) {
+            for (int i = 0; i < sections.size() - 1; i++) {
+                SectionInfo section = sections.get(i);
 
                 // Merge rows based on the current strategy
-                while (i < (mSections.size() - 1) &&
-                        mMergeAlgorithm.continueMerging(section
+                while (i < (sections.size() - 1) &&
+                        mergeAlgorithm.continueMerging(section
                         )) {
-                    SectionInfo nextSection = mSections.remove(i + 1);
+                    SectionInfo nextSection = sections.remove(i + 1);
 
                     // Remove the next section break
-                    mAdapterItems.remove(nextSection.sectionBreakItem);
-                    int pos = mAdapterItems.indexOf(section.firstAppItem);
+                    adapterItems.remove(nextSection.sectionBreakItem);
+                    int pos = adapterItems.indexOf(section.firstAppItem);
 
                     // Point the section for these new apps to the merged section
                     int nextPos = pos + section.numApps;
                     for (int j = nextPos; j < (nextPos + nextSection.numApps); j++) {
-                        AdapterItem item = mAdapterItems.get(j);
+                        AdapterItem item = adapterItems.get(j);
                         item.sectionAppIndex += section.numApps;
                     }
 
                     // Update the following adapter items of the removed section item
-                    pos = mAdapterItems.indexOf(nextSection.firstAppItem);
-                    for (int j = pos; j < mAdapterItems.size(); j++) {
-                        AdapterItem item = mAdapterItems.get(j);
+                    pos = adapterItems.indexOf(nextSection.firstAppItem);
+                    for (int j = pos; j < adapterItems.size(); j++) {
+                        AdapterItem item = adapterItems.get(j);
                         item.position--;
                     }
                     section.numApps += nextSection.numApps;
@@ -505,17 +753,4 @@ public class AlphabeticalAppsList {
             }
         }
     }
-
-    /**
-     * Returns the cached section name for the given title, recomputing and updating the cache if
-     * the title has no cached section name.
-     */
-    private String getAndUpdateCachedSectionName(CharSequence title) {
-        String sectionName = mCachedSectionNames.get(title);
-        if (sectionName == null) {
-            sectionName = mIndexer.computeSectionName(title);
-            mCachedSectionNames.put(title, sectionName);
-        }
-        return sectionName;
-    }
 }
@@ -0,0 +1,309 @@
+package com.pixeldust.launcher.allapps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import com.pixeldust.launcher.AppInfo;
+import com.pixeldust.launcher.util.ComponentKey;
+
+/**
+ * A prefix index over the words of the app titles, used by {@link DefaultAppSearchAlgorithm}.
+ * <p>
+ * Every break point of a title (see {@link #isBreak}) starts a token which runs to the end of the
+ * title, and all the tokens are kept sorted. The apps matching a query are the ones owning a
+ * token which starts with the query, and those tokens form a contiguous range which is found with
+ * a binary search. The index is updated per app, so package events only touch the affected
+ * tokens. All the methods must be called on the UI thread.
+ */
+public class AppSearchIndex {
+
+    private static class Entry {
+        final ComponentKey key;
+        // The title with every char case folded, see fold()
+        final char[] title;
+        // The indices in the title where words start
+        final int[] breakPoints;
+        // The position of the app in the sorted list of apps
+        int rank = -1;
+        // The last query which matched this app, used to only return it once
+        int matchedQuery;
+
+        Entry(AppInfo app) {
+            key = app.toComponentKey();
+            String original = app.title == null ? "" : app.title.toString();
+            title = new char[original.length()];
+            for (int i = 0; i < title.length; i++) {
+                title[i] = fold(original.charAt(i));
+            }
+            breakPoints = getBreakPoints(original);
+        }
+    }
+
+    private static class Token {
+        final Entry entry;
+        final int start;
+
+        Token(Entry entry, int start) {
+            this.entry = entry;
+            this.start = start;
+        }
+    }
+
+    private static final Comparator<Token> TOKEN_COMPARATOR = new Comparator<Token>() {
+        @Override
+        public int compare(Token a, Token b) {
+            char[] titleA = a.entry.title;
+            char[] titleB = b.entry.title;
+            int lengthA = titleA.length - a.start;
+            int lengthB = titleB.length - b.start;
+            int length = Math.min(lengthA, lengthB);
+            for (int i = 0; i < length; i++) {
+                char charA = titleA[a.start + i];
+                char charB = titleB[b.start + i];
+                if (charA != charB) {
+                    return charA - charB;
+                }
+            }
+            return lengthA - lengthB;
+        }
+    };
+
+    private final HashMap<ComponentKey, Entry> mEntries = new HashMap<>();
+    // All the tokens, sorted with TOKEN_COMPARATOR
+    private final ArrayList<Token> mTokens = new ArrayList<>();
+    private Entry[] mEntriesByRank = new Entry[0];
+
+    // Buffers reused across queries
+    private char[] mQuery = new char[16];
+    private int[] mMatchedRanks = new int[16];
+    private int mQueryCount;
+
+    /**
+     * Replaces the indexed apps with {@param apps}.
+     */
+    public void setApps(List<AppInfo> apps) {
+        mEntries.clear();
+        mTokens.clear();
+        for (AppInfo app : apps) {
+            Entry entry = new Entry(app);
+            mEntries.put(entry.key, entry);
+            addTokens(entry, mTokens);
+        }
+        Collections.sort(mTokens, TOKEN_COMPARATOR);
+        updateOrder(apps);
+    }
+
+    /**
+     * Adds {@param apps} to the index, replacing the existing entries of the same components.
+     * {@link #updateOrder} must be called once the apps are sorted.
+     */
+    public void addOrUpdateApps(List<AppInfo> apps) {
+        ArrayList<Token> newTokens = new ArrayList<>();
+        for (AppInfo app : apps) {
+            Entry entry = new Entry(app);
+            Entry oldEntry = mEntries.put(entry.key, entry);
+            if (oldEntry != null) {
+                removeTokens(oldEntry);
+            }
+            addTokens(entry, newTokens);
+        }
+        for (Token token : newTokens) {
+            int index = Collections.binarySearch(mTokens, token, TOKEN_COMPARATOR);
+            mTokens.add(index < 0 ? -index - 1 : index, token);
+        }
+    }
+
+    /**
+     * Removes {@param apps} from the index. {@link #updateOrder} must be called afterwards.
+     */
+    public void removeApps(List<AppInfo> apps) {
+        for (AppInfo app : apps) {
+            Entry entry = mEntries.remove(app.toComponentKey());
+            if (entry != null) {
+                removeTokens(entry);
+            }
+        }
+    }
+
+    /**
+     * Sets the order in which the search results are returned, which is the order of {@param apps}.
+     */
+    public void updateOrder(List<AppInfo> apps) {
+        if (mEntriesByRank.length != apps.size()) {
+            mEntriesByRank = new Entry[apps.size()];
+        }
+        for (Entry entry : mEntries.values()) {
+            entry.rank = -1;
+        }
+        for (int i = 0; i < apps.size(); i++) {
+            Entry entry = mEntries.get(apps.get(i).toComponentKey());
+            if (entry != null) {
+                entry.rank = i;
+            }
+            mEntriesByRank[i] = entry;
+        }
+    }
+
+    /**
+     * Returns the apps which have a word starting with {@param query}, ignoring case, in the
+     * order set by {@link #updateOrder}. Apart from the result, this doesn't allocate.
+     */
+    public ArrayList<ComponentKey> search(String query) {
+        ArrayList<ComponentKey> result = new ArrayList<>();
+        int queryLength = query.length();
+        if (queryLength == 0) {
+            return result;
+        }
+        if (mQuery.length < queryLength) {
+            mQuery = new char[queryLength];
+        }
+        for (int i = 0; i < queryLength; i++) {
+            mQuery[i] = fold(query.charAt(i));
+        }
+
+        int queryId = ++mQueryCount;
+        int matchCount = 0;
+        for (int i = findFirstToken(queryLength); i < mTokens.size(); i++) {
+            Token token = mTokens.get(i);
+            if (compareToQuery(token, queryLength) != 0) {
+                break;
+            }
+            Entry entry = token.entry;
+            if (entry.matchedQuery != queryId && entry.rank >= 0) {
+                entry.matchedQuery = queryId;
+                if (matchCount == mMatchedRanks.length) {
+                    mMatchedRanks = Arrays.copyOf(mMatchedRanks, matchCount * 2);
+                }
+                mMatchedRanks[matchCount++] = entry.rank;
+            }
+        }
+
+        Arrays.sort(mMatchedRanks, 0, matchCount);
+        result.ensureCapacity(matchCount);
+        for (int i = 0; i < matchCount; i++) {
+            result.add(mEntriesByRank[mMatchedRanks[i]].key);
+        }
+        return result;
+    }
+
+    /**
+     * @return the index of the first token which is not smaller than the query.
+     */
+    private int findFirstToken(int queryLength) {
+        int low = 0;
+        int high = mTokens.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareToQuery(mTokens.get(mid), queryLength) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compares the token with the query in mQuery, returning 0 if the token starts with it.
+     */
+    private int compareToQuery(Token token, int queryLength) {
+        char[] title = token.entry.title;
+        int tokenLength = title.length - token.start;
+        int length = Math.min(tokenLength, queryLength);
+        for (int i = 0; i < length; i++) {
+            char c = title[token.start + i];
+            if (c != mQuery[i]) {
+                return c - mQuery[i];
+            }
+        }
+        return tokenLength < queryLength ? -1 : 0;
+    }
+
+    private void removeTokens(Entry entry) {
+        for (int i = mTokens.size() - 1; i >= 0; i--) {
+            if (mTokens.get(i).entry == entry) {
+                mTokens.remove(i);
+            }
+        }
+    }
+
+    private static void addTokens(Entry entry, List<Token> out) {
+        for (int start : entry.breakPoints) {
+            out.add(new Token(entry, start));
+        }
+    }
+
+    /**
+     * Case folds a char such that two chars are equal after folding if and only if they are equal
+     * for {@link String#equalsIgnoreCase}.
+     */
+    private static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /**
+     * @return the indices of the chars in {@param title} which start a word.
+     */
+    static int[] getBreakPoints(String title) {
+        int length = title.length();
+        int[] breakPoints = new int[length];
+        int count = 0;
+
+        int lastType;
+        int thisType = Character.UNASSIGNED;
+        int nextType = length > 0 ? Character.getType(title.codePointAt(0)) : Character.UNASSIGNED;
+        for (int i = 0; i < length; i++) {
+            lastType = thisType;
+            thisType = nextType;
+            nextType = i < (length - 1) ?
+                    Character.getType(title.codePointAt(i + 1)) : Character.UNASSIGNED;
+            if (isBreak(thisType, lastType, nextType)) {
+                breakPoints[count++] = i;
+            }
+        }
+        return Arrays.copyOf(breakPoints, count);
+    }
+
+    /**
+     * Returns true if the current point should be a break point. Following cases
+     * are considered as break points:
+     * 1) Any non space character after a space character
+     * 2) Any digit after a non-digit character
+     * 3) Any capital character after a digit or small character
+     * 4) Any capital character before a small character
+     */
+    static boolean isBreak(int thisType, int prevType, int nextType) {
+        switch (thisType) {
+            case Character.UPPERCASE_LETTER:
+                if (nextType == Character.UPPERCASE_LETTER) {
+                    return true;
+                }
+                // Follow through
+            case Character.TITLECASE_LETTER:
+                // Break point if previous was not a upper case
+                return prevType != Character.UPPERCASE_LETTER;
+            case Character.LOWERCASE_LETTER:
+                // Break point if previous was not a letter.
+                return prevType > Character.OTHER_LETTER || prevType <= Character.UNASSIGNED;
+            case Character.DECIMAL_DIGIT_NUMBER:
+            case Character.LETTER_NUMBER:
+            case Character.OTHER_NUMBER:
+                // Break point if previous was not a number
+                return !(prevType == Character.DECIMAL_DIGIT_NUMBER
+                        || prevType == Character.LETTER_NUMBER
+                        || prevType == Character.OTHER_NUMBER);
+            case Character.MATH_SYMBOL:
+            case Character.CURRENCY_SYMBOL:
+            case Character.OTHER_PUNCTUATION:
+            case Character.DASH_PUNCTUATION:
+                // Always a break point for a symbol
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -24,15 +24,22 @@ import com.pixeldust.launcher.AppInfo;
 import com.pixeldust.launcher.util.ComponentKey;
 
 /**
- * The default search implementation.
+ * The default search implementation. Titles are looked up in an {@link AppSearchIndex} when one
+ * is provided, and scanned one by one otherwise.
  */
 public class DefaultAppSearchAlgorithm {
 
     private final List<AppInfo> mApps;
+    private final AppSearchIndex mIndex;
     protected final Handler mResultHandler;
 
     public DefaultAppSearchAlgorithm(List<AppInfo> apps) {
+        this(apps, null);
+    }
+
+    public DefaultAppSearchAlgorithm(List<AppInfo> apps, AppSearchIndex index) {
         mApps = apps;
+        mIndex = index;
         mResultHandler = new Handler();
     }
 
@@ -55,6 +62,10 @@ public class DefaultAppSearchAlgorithm {
     }
 
     protected ArrayList<ComponentKey> getTitleMatchResult(String query) {
+        if (mIndex != null) {
+            return mIndex.search(query);
+        }
+
         // Do an intersection of the words in the query and each title, and filter out all the
         // apps that don't match all of the words in the query.
         final String queryTextLower = query.toLowerCase();
@@ -96,41 +107,9 @@ public class DefaultAppSearchAlgorithm {
     }
 
     /**
-     * Returns true if the current point should be a break point. Following cases
-     * are considered as break points:
-     * 1) Any non space character after a space character
-     * 2) Any digit after a non-digit character
-     * 3) Any capital character after a digit or small character
-     * 4) Any capital character before a small character
+     * @see AppSearchIndex#isBreak
      */
     protected boolean isBreak(int thisType, int prevType, int nextType) {
-        switch (thisType) {
-            case Character.UPPERCASE_LETTER:
-                if (nextType == Character.UPPERCASE_LETTER) {
-                    return true;
-                }
-                // Follow through
-            case Character.TITLECASE_LETTER:
-                // Break point if previous was not a upper case
-                return prevType != Character.UPPERCASE_LETTER;
-            case Character.LOWERCASE_LETTER:
-                // Break point if previous was not a letter.
-                return prevType > Character.OTHER_LETTER || prevType <= Character.UNASSIGNED;
-            case Character.DECIMAL_DIGIT_NUMBER:
-            case Character.LETTER_NUMBER:
-            case Character.OTHER_NUMBER:
-                // Break point if previous was not a number
-                return !(prevType == Character.DECIMAL_DIGIT_NUMBER
-                        || prevType == Character.LETTER_NUMBER
-                        || prevType == Character.OTHER_NUMBER);
-            case Character.MATH_SYMBOL:
-            case Character.CURRENCY_SYMBOL:
-            case Character.OTHER_PUNCTUATION:
-            case Character.DASH_PUNCTUATION:
-                // Always a break point for a symbol
-                return true;
-            default:
-                return false;
-        }
+        return AppSearchIndex.isBreak(thisType, prevType, nextType);
     }
 }
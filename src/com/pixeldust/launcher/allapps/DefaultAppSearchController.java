@@ -21,6 +21,6 @@ package com.pixeldust.launcher.allapps;
 public class DefaultAppSearchController extends AllAppsSearchBarController {
 
     public DefaultAppSearchAlgorithm onInitializeSearch() {
-        return new DefaultAppSearchAlgorithm(mApps.getApps());
+        return new DefaultAppSearchAlgorithm(mApps.getApps(), mApps.getSearchIndex());
     }
 }
@@ -3,6 +3,7 @@ package com.pixeldust.launcher.blur;
 import android.app.WallpaperManager;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Path;
@@ -10,9 +11,18 @@ import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
 import android.graphics.drawable.BitmapDrawable;
 import android.util.DisplayMetrics;
+import android.util.Log;
 import android.view.Display;
 import android.view.WindowManager;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -21,8 +31,14 @@ import com.pixeldust.launcher.LauncherAppState;
 import com.pixeldust.launcher.R;
 import com.pixeldust.launcher.Utilities;
 import com.pixeldust.launcher.config.FeatureFlags;
+import com.pixeldust.launcher.dynamicui.ExtractionUtils;
 
 public class BlurWallpaperProvider {
+    private static final String TAG = "BlurWallpaperProvider";
+
+    // Directory of the cache dir holding the last blurred wallpaper.
+    private static final String CACHE_DIR = "blur";
+
     private final Context mContext;
     private final WallpaperManager mWallpaperManager;
     private final List<Listener> mListeners = new ArrayList<>();
@@ -45,6 +61,8 @@ public class BlurWallpaperProvider {
 
     private final Path mPath = new Path();
 
+    private final FastBlur mBlur = new FastBlur();
+
     private final Runnable mUpdateRunnable = new Runnable() {
         @Override
         public void run() {
@@ -70,6 +88,12 @@ public class BlurWallpaperProvider {
 
         mBlurRadius = (int) Utilities.getPrefs(mContext).getFloat("pref_blurRadius", 75f);
 
+        File cacheFile = getCacheFile();
+        if (cacheFile != null && loadFromCache(cacheFile)) {
+            launcher.runOnUiThread(mNotifyRunnable);
+            return;
+        }
+
         Bitmap wallpaper = upscaleToScreenSize(((BitmapDrawable) mWallpaperManager.getDrawable()).getBitmap());
         mWallpaper = null;
         mPlaceholder = createPlaceholder(wallpaper.getWidth(), wallpaper.getHeight());
@@ -77,14 +101,107 @@ public class BlurWallpaperProvider {
         if (FeatureFlags.isVibrancyEnabled(mContext)) {
             wallpaper = applyVibrancy(wallpaper, getTintColor());
         }
-        mWallpaper = blur(wallpaper);
+        Bitmap blurred = mBlur.blurDownsampled(wallpaper, mBlurRadius);
+        if (cacheFile != null) {
+            saveToCache(cacheFile, blurred, wallpaper.getWidth(), wallpaper.getHeight());
+        }
+        mWallpaper = FastBlur.upscale(blurred, wallpaper.getWidth(), wallpaper.getHeight());
         launcher.runOnUiThread(mNotifyRunnable);
     }
 
-    private Bitmap upscaleToScreenSize(Bitmap bitmap) {
+    /**
+     * @return the file holding the blurred wallpaper for the current wallpaper, blur radius, tint
+     * and screen size, or null if the wallpaper can't be identified.
+     */
+    private File getCacheFile() {
+        int wallpaperId = ExtractionUtils.getWallpaperId(mWallpaperManager);
+        if (wallpaperId == -1) {
+            return null;
+        }
+        updateDisplayMetrics();
+        boolean vibrancy = FeatureFlags.isVibrancyEnabled(mContext);
+        String name = wallpaperId + "_" + mBlurRadius
+                + "_" + Integer.toHexString(getTintColor())
+                + (vibrancy ? (FeatureFlags.useDarkTheme ? "_dark" : "_light") : "")
+                + "_" + mDisplayMetrics.widthPixels + "x" + mDisplayMetrics.heightPixels;
+        return new File(new File(mContext.getCacheDir(), CACHE_DIR), name);
+    }
+
+    /**
+     * Loads the blurred wallpaper saved by {@link #saveToCache}.
+     */
+    private boolean loadFromCache(File file) {
+        if (!file.exists()) {
+            return false;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            int width = in.readInt();
+            int height = in.readInt();
+            Bitmap blurred = BitmapFactory.decodeStream(in);
+            if (blurred == null) {
+                return false;
+            }
+            mPlaceholder = createPlaceholder(width, height);
+            mWallpaper = FastBlur.upscale(blurred, width, height);
+            return true;
+        } catch (IOException e) {
+            Log.d(TAG, "Error reading blurred wallpaper", e);
+            return false;
+        } finally {
+            Utilities.closeSilently(in);
+        }
+    }
+
+    /**
+     * Saves the downsampled blur result along with the size it is displayed at, replacing any
+     * blur of a previous wallpaper or setting. The blur of the same wallpaper and setting in the
+     * other orientation is kept.
+     */
+    private void saveToCache(File file, Bitmap blurred, int width, int height) {
+        File dir = file.getParentFile();
+        String name = file.getName();
+        // Everything but the screen size
+        String prefix = name.substring(0, name.lastIndexOf('_') + 1);
+        File[] oldFiles = dir.listFiles();
+        if (oldFiles != null) {
+            for (File oldFile : oldFiles) {
+                if (!oldFile.getName().startsWith(prefix) || oldFile.getName().endsWith(".tmp")) {
+                    oldFile.delete();
+                }
+            }
+        }
+        dir.mkdirs();
+
+        // Write to a temporary file first, so a partial write is never loaded
+        File tmpFile = new File(dir, name + ".tmp");
+        DataOutputStream out = null;
+        boolean written = false;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            out.writeInt(width);
+            out.writeInt(height);
+            written = blurred.compress(Bitmap.CompressFormat.PNG, 100, out);
+            out.flush();
+        } catch (IOException e) {
+            Log.d(TAG, "Error writing blurred wallpaper", e);
+        } finally {
+            Utilities.closeSilently(out);
+        }
+        if (!written || !tmpFile.renameTo(file)) {
+            tmpFile.delete();
+        }
+    }
+
+    private void updateDisplayMetrics() {
         WindowManager wm = (WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE);
         Display display = wm.getDefaultDisplay();
         display.getRealMetrics(mDisplayMetrics);
+    }
+
+    private Bitmap upscaleToScreenSize(Bitmap bitmap) {
+        updateDisplayMetrics();
 
         int width = mDisplayMetrics.widthPixels, height = mDisplayMetrics.heightPixels;
 
@@ -232,203 +349,6 @@ public class BlurWallpaperProvider {
     }
 
     public Bitmap blur(Bitmap image) {
-        int width = image.getWidth();
-        int height = image.getHeight();
-        image = Bitmap.createScaledBitmap(image, width, height, false);
-
-        Bitmap bitmap = image.copy(image.getConfig(), true);
-
-        int w = bitmap.getWidth();
-        int h = bitmap.getHeight();
-
-        int[] pix = new int[w * h];
-        bitmap.getPixels(pix, 0, w, 0, 0, w, h);
-
-        int wm = w - 1;
-        int hm = h - 1;
-        int wh = w * h;
-        int div = mBlurRadius + mBlurRadius + 1;
-
-        int r[] = new int[wh];
-        int g[] = new int[wh];
-        int b[] = new int[wh];
-        int rsum, gsum, bsum, x, y, i, p, yp, yi, yw;
-        int vmin[] = new int[Math.max(w, h)];
-
-        int divsum = (div + 1) >> 1;
-        divsum *= divsum;
-        int dv[] = new int[256 * divsum];
-        for (i = 0; i < 256 * divsum; i++) {
-            dv[i] = (i / divsum);
-        }
-
-        yw = yi = 0;
-
-        int[][] stack = new int[div][3];
-        int stackpointer;
-        int stackstart;
-        int[] sir;
-        int rbs;
-        int r1 = mBlurRadius + 1;
-        int routsum, goutsum, boutsum;
-        int rinsum, ginsum, binsum;
-
-        for (y = 0; y < h; y++) {
-            rinsum = ginsum = binsum = routsum = goutsum = boutsum = rsum = gsum = bsum = 0;
-            for (i = -mBlurRadius; i <= mBlurRadius; i++) {
-                p = pix[yi + Math.min(wm, Math.max(i, 0))];
-                sir = stack[i + mBlurRadius];
-                sir[0] = (p & 0xff0000) >> 16;
-                sir[1] = (p & 0x00ff00) >> 8;
-                sir[2] = (p & 0x0000ff);
-                rbs = r1 - Math.abs(i);
-                rsum += sir[0] * rbs;
-                gsum += sir[1] * rbs;
-                bsum += sir[2] * rbs;
-                if (i > 0) {
-                    rinsum += sir[0];
-                    ginsum += sir[1];
-                    binsum += sir[2];
-                } else {
-                    routsum += sir[0];
-                    goutsum += sir[1];
-                    boutsum += sir[2];
-                }
-            }
-            stackpointer = mBlurRadius;
-
-            for (x = 0; x < w; x++) {
-
-                r[yi] = dv[rsum];
-                g[yi] = dv[gsum];
-                b[yi] = dv[bsum];
-
-                rsum -= routsum;
-                gsum -= goutsum;
-                bsum -= boutsum;
-
-                stackstart = stackpointer - mBlurRadius + div;
-                sir = stack[stackstart % div];
-
-                routsum -= sir[0];
-                goutsum -= sir[1];
-                boutsum -= sir[2];
-
-                if (y == 0) {
-                    vmin[x] = Math.min(x + mBlurRadius + 1, wm);
-                }
-                p = pix[yw + vmin[x]];
-
-                sir[0] = (p & 0xff0000) >> 16;
-                sir[1] = (p & 0x00ff00) >> 8;
-                sir[2] = (p & 0x0000ff);
-
-                rinsum += sir[0];
-                ginsum += sir[1];
-                binsum += sir[2];
-
-                rsum += rinsum;
-                gsum += ginsum;
-                bsum += binsum;
-
-                stackpointer = (stackpointer + 1) % div;
-                sir = stack[(stackpointer) % div];
-
-                routsum += sir[0];
-                goutsum += sir[1];
-                boutsum += sir[2];
-
-                rinsum -= sir[0];
-                ginsum -= sir[1];
-                binsum -= sir[2];
-
-                yi++;
-            }
-            yw += w;
-        }
-        for (x = 0; x < w; x++) {
-            rinsum = ginsum = binsum = routsum = goutsum = boutsum = rsum = gsum = bsum = 0;
-            yp = -mBlurRadius * w;
-            for (i = -mBlurRadius; i <= mBlurRadius; i++) {
-                yi = Math.max(0, yp) + x;
-
-                sir = stack[i + mBlurRadius];
-
-                sir[0] = r[yi];
-                sir[1] = g[yi];
-                sir[2] = b[yi];
-
-                rbs = r1 - Math.abs(i);
-
-                rsum += r[yi] * rbs;
-                gsum += g[yi] * rbs;
-                bsum += b[yi] * rbs;
-
-                if (i > 0) {
-                    rinsum += sir[0];
-                    ginsum += sir[1];
-                    binsum += sir[2];
-                } else {
-                    routsum += sir[0];
-                    goutsum += sir[1];
-                    boutsum += sir[2];
-                }
-
-                if (i < hm) {
-                    yp += w;
-                }
-            }
-            yi = x;
-            stackpointer = mBlurRadius;
-            for (y = 0; y < h; y++) {
-                // Preserve alpha channel: ( 0xff000000 & pix[yi] )
-                pix[yi] = ( 0xff000000 & pix[yi] ) | ( dv[rsum] << 16 ) | ( dv[gsum] << 8 ) | dv[bsum];
-
-                rsum -= routsum;
-                gsum -= goutsum;
-                bsum -= boutsum;
-
-                stackstart = stackpointer - mBlurRadius + div;
-                sir = stack[stackstart % div];
-
-                routsum -= sir[0];
-                goutsum -= sir[1];
-                boutsum -= sir[2];
-
-                if (x == 0) {
-                    vmin[y] = Math.min(y + r1, hm) * w;
-                }
-                p = x + vmin[y];
-
-                sir[0] = r[p];
-                sir[1] = g[p];
-                sir[2] = b[p];
-
-                rinsum += sir[0];
-                ginsum += sir[1];
-                binsum += sir[2];
-
-                rsum += rinsum;
-                gsum += ginsum;
-                bsum += binsum;
-
-                stackpointer = (stackpointer + 1) % div;
-                sir = stack[stackpointer];
-
-                routsum += sir[0];
-                goutsum += sir[1];
-                boutsum += sir[2];
-
-                rinsum -= sir[0];
-                ginsum -= sir[1];
-                binsum -= sir[2];
-
-                yi += w;
-            }
-        }
-
-        bitmap.setPixels(pix, 0, w, 0, 0, w, h);
-
-        return (bitmap);
+        return mBlur.blur(image, mBlurRadius);
     }
 }
@@ -0,0 +1,164 @@
+package com.pixeldust.launcher.blur;
+
+import android.graphics.Bitmap;
+
+import java.util.concurrent.CountDownLatch;
+
+import com.pixeldust.launcher.util.Executors;
+
+/**
+ * Blurs bitmaps by running three box blur passes, which approximate a gaussian, on a
+ * downsampled copy of the image. Rows and columns are split across cores, and the pixel buffers
+ * are reused between calls.
+ */
+public class FastBlur {
+
+    // The image is downsampled until the blur radius is at most this, since a larger radius
+    // wouldn't bring out any detail which survives the blur.
+    private static final int MAX_SCALED_RADIUS = 8;
+    private static final int MAX_DOWNSAMPLE = 8;
+    private static final int PASSES = 3;
+    // Converts a stack blur radius into a box radius of the same variance, over three passes.
+    private static final float BOX_RADIUS_FACTOR = 0.41f;
+
+    private static final int THREAD_COUNT =
+            Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 4));
+
+    private int[] mPixels = new int[0];
+    private int[] mTemp = new int[0];
+
+    /**
+     * @return a new bitmap of the same size as {@param image}, blurred with {@param radius}.
+     */
+    public Bitmap blur(Bitmap image, int radius) {
+        Bitmap blurred = blurDownsampled(image, radius);
+        if (blurred.getWidth() == image.getWidth() && blurred.getHeight() == image.getHeight()) {
+            return blurred;
+        }
+        Bitmap result = upscale(blurred, image.getWidth(), image.getHeight());
+        blurred.recycle();
+        return result;
+    }
+
+    /**
+     * @return {@param image} blurred with {@param radius}, at the downsampled size the blur was
+     * computed at. Use {@link #upscale} to get it back to the original size.
+     */
+    public synchronized Bitmap blurDownsampled(Bitmap image, int radius) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int downsample = Math.max(1, Math.min(MAX_DOWNSAMPLE,
+                (radius + MAX_SCALED_RADIUS - 1) / MAX_SCALED_RADIUS));
+        int w = Math.max(1, width / downsample);
+        int h = Math.max(1, height / downsample);
+        int boxRadius = Math.max(1, Math.round(radius * BOX_RADIUS_FACTOR / downsample));
+
+        Bitmap scaled = Bitmap.createScaledBitmap(image, w, h, true);
+        if (mPixels.length < w * h) {
+            mPixels = new int[w * h];
+            mTemp = new int[w * h];
+        }
+        scaled.getPixels(mPixels, 0, w, 0, 0, w, h);
+
+        for (int pass = 0; pass < PASSES; pass++) {
+            runInParallel(new Pass(mPixels, mTemp, w, h, boxRadius, true), h);
+            runInParallel(new Pass(mTemp, mPixels, w, h, boxRadius, false), w);
+        }
+
+        if (scaled != image) {
+            scaled.recycle();
+        }
+        Bitmap blurred = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+        blurred.setPixels(mPixels, 0, w, 0, 0, w, h);
+        return blurred;
+    }
+
+    public static Bitmap upscale(Bitmap blurred, int width, int height) {
+        return Bitmap.createScaledBitmap(blurred, width, height, true);
+    }
+
+    /**
+     * Splits {@param lineCount} lines between the background pool and the calling thread, and
+     * waits for all of them.
+     */
+    private static void runInParallel(final Pass pass, int lineCount) {
+        int chunks = Math.min(THREAD_COUNT, lineCount);
+        final CountDownLatch latch = new CountDownLatch(chunks - 1);
+        for (int i = 1; i < chunks; i++) {
+            final int start = lineCount * i / chunks;
+            final int end = lineCount * (i + 1) / chunks;
+            Executors.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    pass.run(start, end);
+                    latch.countDown();
+                }
+            }, Executors.PRIORITY_HIGH);
+        }
+        pass.run(0, lineCount / chunks);
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A box blur of the rows or the columns of an image, with clamped edges. Alpha is kept from
+     * the source pixel.
+     */
+    private static class Pass {
+        private final int[] mSrc;
+        private final int[] mDst;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mRadius;
+        private final boolean mHorizontal;
+
+        Pass(int[] src, int[] dst, int width, int height, int radius, boolean horizontal) {
+            mSrc = src;
+            mDst = dst;
+            mWidth = width;
+            mHeight = height;
+            mRadius = radius;
+            mHorizontal = horizontal;
+        }
+
+        void run(int startLine, int endLine) {
+            int length = mHorizontal ? mWidth : mHeight;
+            int step = mHorizontal ? 1 : mWidth;
+            int last = length - 1;
+            int div = mRadius + mRadius + 1;
+
+            for (int line = startLine; line < endLine; line++) {
+                int base = mHorizontal ? line * mWidth : line;
+                int rsum = 0, gsum = 0, bsum = 0;
+                for (int i = -mRadius; i <= mRadius; i++) {
+                    int p = mSrc[base + Math.min(last, Math.max(i, 0)) * step];
+                    rsum += (p >> 16) & 0xff;
+                    gsum += (p >> 8) & 0xff;
+                    bsum += p & 0xff;
+                }
+                for (int i = 0; i < length; i++) {
+                    int index = base + i * step;
+                    mDst[index] = (mSrc[index] & 0xff000000)
+                            | ((rsum / div) << 16) | ((gsum / div) << 8) | (bsum / div);
+
+                    int in = mSrc[base + Math.min(last, i + mRadius + 1) * step];
+                    int out = mSrc[base + Math.max(0, i - mRadius) * step];
+                    rsum += ((in >> 16) & 0xff) - ((out >> 16) & 0xff);
+                    gsum += ((in >> 8) & 0xff) - ((out >> 8) & 0xff);
+                    bsum += (in & 0xff) - (out & 0xff);
+                }
+            }
+        }
+    }
+}
@@ -28,12 +28,13 @@ import java.util.HashMap;
 
 import com.pixeldust.launcher.IconCache;
 import com.pixeldust.launcher.LauncherAppState;
-import com.pixeldust.launcher.LauncherModel;
 import com.pixeldust.launcher.Utilities;
+import com.pixeldust.launcher.util.Executors;
 import com.pixeldust.launcher.util.Thunk;
 
 public class PackageInstallerCompatVL extends PackageInstallerCompat {
 
+    // Accessed from both the loader and the installer callback thread.
     @Thunk
     final SparseArray<String> mActiveSessions = new SparseArray<>();
 
@@ -45,7 +46,7 @@ public class PackageInstallerCompatVL extends PackageInstallerCompat {
     PackageInstallerCompatVL(Context context) {
         mInstaller = context.getPackageManager().getPackageInstaller();
         mCache = LauncherAppState.getInstance().getIconCache();
-        mWorker = new Handler(LauncherModel.getWorkerLooper());
+        mWorker = new Handler(Executors.UI_HELPER_EXECUTOR.getLooper());
 
         mInstaller.registerSessionCallback(mCallback, mWorker);
     }
@@ -58,7 +59,9 @@ public class PackageInstallerCompatVL extends PackageInstallerCompat {
             addSessionInfoToCahce(info, user);
             if (info.getAppPackageName() != null) {
                 activePackages.put(info.getAppPackageName(), (int) (info.getProgress() * 100));
-                mActiveSessions.put(info.getSessionId(), info.getAppPackageName());
+                synchronized (mActiveSessions) {
+                    mActiveSessions.put(info.getSessionId(), info.getAppPackageName());
+                }
             }
         }
         return activePackages;
@@ -92,8 +95,11 @@ public class PackageInstallerCompatVL extends PackageInstallerCompat {
         public void onFinished(int sessionId, boolean success) {
             // For a finished session, we can't get the session info. So use the
             // packageName from our local cache.
-            String packageName = mActiveSessions.get(sessionId);
-            mActiveSessions.remove(sessionId);
+            String packageName;
+            synchronized (mActiveSessions) {
+                packageName = mActiveSessions.get(sessionId);
+                mActiveSessions.remove(sessionId);
+            }
 
             if (packageName != null) {
                 sendUpdate(new PackageInstallInfo(packageName,
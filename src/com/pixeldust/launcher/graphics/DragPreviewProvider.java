@@ -31,6 +31,7 @@ import com.pixeldust.launcher.PreloadIconDrawable;
 import com.pixeldust.launcher.R;
 import com.pixeldust.launcher.Workspace;
 import com.pixeldust.launcher.folder.FolderIcon;
+import com.pixeldust.launcher.util.BitmapPool;
 
 /**
  * A utility class to generate preview bitmap for dragging.
@@ -94,7 +95,8 @@ public class DragPreviewProvider {
 
     /**
      * Returns a new bitmap to show when the {@link #mView} is being dragged around.
-     * Responsibility for the bitmap is transferred to the caller.
+     * Responsibility for the bitmap is transferred to the caller, which can return it to the
+     * {@link BitmapPool} once done.
      */
     public Bitmap createDragBitmap(Canvas canvas) {
         float f = 1.0f;
@@ -109,7 +111,7 @@ public class DragPreviewProvider {
             width = (int) (((float) this.mView.getWidth()) * f);
             height = (int) (((float) this.mView.getHeight()) * f);
         }
-        Bitmap createBitmap = Bitmap.createBitmap(width + this.blurSizeOutline, height + this.blurSizeOutline, Bitmap.Config.ARGB_8888);
+        Bitmap createBitmap = BitmapPool.getInstance().get(width + this.blurSizeOutline, height + this.blurSizeOutline, Bitmap.Config.ARGB_8888);
         canvas.setBitmap(createBitmap);
         canvas.save();
         canvas.scale(f, f);
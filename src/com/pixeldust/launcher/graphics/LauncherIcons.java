@@ -27,11 +27,19 @@ import com.pixeldust.launcher.compat.LauncherActivityInfoCompat;
 import com.pixeldust.launcher.model.PackageItemInfo;
 import com.pixeldust.launcher.shortcuts.DeepShortcutManager;
 import com.pixeldust.launcher.shortcuts.ShortcutInfoCompat;
+import com.pixeldust.launcher.util.BitmapPool;
 import com.pixeldust.launcher.util.IconNormalizer;
 
 public class LauncherIcons {
-    private static final Canvas sCanvas = new Canvas();
-    private static final Rect sOldBounds = new Rect();
+    // Icons are created on several threads at once, each with its own canvas
+    private static final ThreadLocal<Canvas> sCanvas = new ThreadLocal<Canvas>() {
+        @Override
+        protected Canvas initialValue() {
+            Canvas canvas = new Canvas();
+            canvas.setDrawFilter(new PaintFlagsDrawFilter(4, 2));
+            return canvas;
+        }
+    };
 
     static class FixedSizeBitmapDrawable extends BitmapDrawable {
         public FixedSizeBitmapDrawable(Bitmap bitmap) {
@@ -49,10 +57,6 @@ public class LauncherIcons {
         }
     }
 
-    static {
-        sCanvas.setDrawFilter(new PaintFlagsDrawFilter(4, 2));
-    }
-
     public static Bitmap createIconBitmap(ShortcutIconResource shortcutIconResource, Context context) {
         try {
             Resources resourcesForApplication = context.getPackageManager().getResourcesForApplication(shortcutIconResource.packageName);
@@ -90,9 +94,15 @@ public class LauncherIcons {
                 }
             }
         }*/
-        Bitmap createIconBitmap = createIconBitmap(drawable, context, f);
+        Bitmap createIconBitmap;
         if (Utilities.isAtLeastO() /*&& (drawable instanceof AdaptiveIconDrawable)*/) {
-            createIconBitmap = ShadowGenerator.getInstance().recreateIcon(createIconBitmap);
+            // Only the unshadowed icon is short-lived, the result is kept in the icon cache
+            Bitmap unshadowed = createIconBitmap(drawable, context, f, true);
+            createIconBitmap = ShadowGenerator.getInstance().recreateIcon(unshadowed);
+            // Same size as the next icon, which can then reuse it
+            BitmapPool.getInstance().put(unshadowed);
+        } else {
+            createIconBitmap = createIconBitmap(drawable, context, f);
         }
         return badgeIconForUser(createIconBitmap, userHandle, context);
     }
@@ -136,11 +146,10 @@ public class LauncherIcons {
 
     public static Bitmap badgeWithBitmap(Bitmap bitmap, Bitmap bitmap2, Context context) {
         int dimensionPixelSize = context.getResources().getDimensionPixelSize(R.dimen.profile_badge_size);
-        synchronized (sCanvas) {
-            sCanvas.setBitmap(bitmap);
-            sCanvas.drawBitmap(bitmap2, new Rect(0, 0, bitmap2.getWidth(), bitmap2.getHeight()), new Rect(bitmap.getWidth() - dimensionPixelSize, bitmap.getHeight() - dimensionPixelSize, bitmap.getWidth(), bitmap.getHeight()), new Paint(2));
-            sCanvas.setBitmap(null);
-        }
+        Canvas canvas = sCanvas.get();
+        canvas.setBitmap(bitmap);
+        canvas.drawBitmap(bitmap2, new Rect(0, 0, bitmap2.getWidth(), bitmap2.getHeight()), new Rect(bitmap.getWidth() - dimensionPixelSize, bitmap.getHeight() - dimensionPixelSize, bitmap.getWidth(), bitmap.getHeight()), new Paint(2));
+        canvas.setBitmap(null);
         return bitmap;
     }
 
@@ -157,58 +166,67 @@ public class LauncherIcons {
     }
 
     public static Bitmap createIconBitmap(Drawable drawable, Context context, float f) {
+        return createIconBitmap(drawable, context, f, false);
+    }
+
+    /**
+     * @param fromPool whether the bitmap is taken from the {@link BitmapPool}. Only for bitmaps
+     *                 which are returned to the pool once used, as the pool can hand out larger
+     *                 allocations.
+     */
+    private static Bitmap createIconBitmap(Drawable drawable, Context context, float f,
+            boolean fromPool) {
         Bitmap createBitmap;
-        synchronized (sCanvas) {
-            int i = LauncherAppState.getInstance().getInvariantDeviceProfile().iconBitmapSize;
-            if (drawable instanceof PaintDrawable) {
-                PaintDrawable paintDrawable = (PaintDrawable) drawable;
-                paintDrawable.setIntrinsicWidth(i);
-                paintDrawable.setIntrinsicHeight(i);
-            } else if (drawable instanceof BitmapDrawable) {
-                BitmapDrawable bitmapDrawable = (BitmapDrawable) drawable;
-                Bitmap bitmap = bitmapDrawable.getBitmap();
-                if (bitmap != null && bitmap.getDensity() == 0) {
-                    bitmapDrawable.setTargetDensity(context.getResources().getDisplayMetrics());
-                }
+        int i = LauncherAppState.getInstance().getInvariantDeviceProfile().iconBitmapSize;
+        if (drawable instanceof PaintDrawable) {
+            PaintDrawable paintDrawable = (PaintDrawable) drawable;
+            paintDrawable.setIntrinsicWidth(i);
+            paintDrawable.setIntrinsicHeight(i);
+        } else if (drawable instanceof BitmapDrawable) {
+            BitmapDrawable bitmapDrawable = (BitmapDrawable) drawable;
+            Bitmap bitmap = bitmapDrawable.getBitmap();
+            if (bitmap != null && bitmap.getDensity() == 0) {
+                bitmapDrawable.setTargetDensity(context.getResources().getDisplayMetrics());
             }
-            int intrinsicWidth = drawable.getIntrinsicWidth();
-            int intrinsicHeight = drawable.getIntrinsicHeight();
-            if (intrinsicWidth <= 0 || intrinsicHeight <= 0) {
-                intrinsicWidth = i;
+        }
+        int intrinsicWidth = drawable.getIntrinsicWidth();
+        int intrinsicHeight = drawable.getIntrinsicHeight();
+        if (intrinsicWidth <= 0 || intrinsicHeight <= 0) {
+            intrinsicWidth = i;
+            intrinsicHeight = i;
+        } else {
+            float f2 = ((float) intrinsicWidth) / ((float) intrinsicHeight);
+            if (intrinsicWidth > intrinsicHeight) {
+                intrinsicWidth = (int) (((float) i) / f2);
                 intrinsicHeight = i;
+            } else if (intrinsicHeight > intrinsicWidth) {
+                intrinsicHeight = (int) (((float) i) * f2);
+                intrinsicWidth = i;
             } else {
-                float f2 = ((float) intrinsicWidth) / ((float) intrinsicHeight);
-                if (intrinsicWidth > intrinsicHeight) {
-                    intrinsicWidth = (int) (((float) i) / f2);
-                    intrinsicHeight = i;
-                } else if (intrinsicHeight > intrinsicWidth) {
-                    intrinsicHeight = (int) (((float) i) * f2);
-                    intrinsicWidth = i;
-                } else {
-                    intrinsicWidth = i;
-                    intrinsicHeight = i;
-                }
-            }
-            createBitmap = Bitmap.createBitmap(i, i, Config.ARGB_8888);
-            Canvas canvas = sCanvas;
-            canvas.setBitmap(createBitmap);
-            int i2 = (i - intrinsicHeight) / 2;
-            int i3 = (i - intrinsicWidth) / 2;
-            sOldBounds.set(drawable.getBounds());
-            if (Utilities.isAtLeastO() /*&& (drawable instanceof AdaptiveIconDrawable)*/) {
-                i2 = Math.min(i2, i3);
-                intrinsicWidth = Math.max(intrinsicHeight, intrinsicWidth);
-                drawable.setBounds(i2, i2, i2 + intrinsicWidth, intrinsicWidth + i2);
-            } else {
-                drawable.setBounds(i2, i3, intrinsicHeight + i2, intrinsicWidth + i3);
+                intrinsicWidth = i;
+                intrinsicHeight = i;
             }
-            canvas.save(Canvas.MATRIX_SAVE_FLAG);
-            canvas.scale(f, f, (float) (i / 2), (float) (i / 2));
-            drawable.draw(canvas);
-            canvas.restore();
-            drawable.setBounds(sOldBounds);
-            canvas.setBitmap(null);
         }
+        createBitmap = fromPool ? BitmapPool.getInstance().get(i, i, Config.ARGB_8888)
+                : Bitmap.createBitmap(i, i, Config.ARGB_8888);
+        Canvas canvas = sCanvas.get();
+        canvas.setBitmap(createBitmap);
+        int i2 = (i - intrinsicHeight) / 2;
+        int i3 = (i - intrinsicWidth) / 2;
+        Rect oldBounds = drawable.copyBounds();
+        if (Utilities.isAtLeastO() /*&& (drawable instanceof AdaptiveIconDrawable)*/) {
+            i2 = Math.min(i2, i3);
+            intrinsicWidth = Math.max(intrinsicHeight, intrinsicWidth);
+            drawable.setBounds(i2, i2, i2 + intrinsicWidth, intrinsicWidth + i2);
+        } else {
+            drawable.setBounds(i2, i3, intrinsicHeight + i2, intrinsicWidth + i3);
+        }
+        canvas.save(Canvas.MATRIX_SAVE_FLAG);
+        canvas.scale(f, f, (float) (i / 2), (float) (i / 2));
+        drawable.draw(canvas);
+        canvas.restore();
+        drawable.setBounds(oldBounds);
+        canvas.setBitmap(null);
         return createBitmap;
     }
 
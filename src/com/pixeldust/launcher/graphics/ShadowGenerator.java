@@ -41,9 +41,14 @@ public class ShadowGenerator {
 
     private static final int AMBIENT_SHADOW_ALPHA = 30;
 
-    private static final Object LOCK = new Object();
-    // Singleton object guarded by {@link #LOCK}
-    private static ShadowGenerator sShadowGenerator;
+    // Shadows are generated on several threads at once, each with its own canvas and paints
+    private static final ThreadLocal<ShadowGenerator> sShadowGenerator =
+            new ThreadLocal<ShadowGenerator>() {
+                @Override
+                protected ShadowGenerator initialValue() {
+                    return new ShadowGenerator();
+                }
+            };
 
     private final int mIconSize;
 
@@ -59,9 +64,10 @@ public class ShadowGenerator {
         mDrawPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
     }
 
-    public synchronized Bitmap recreateIcon(Bitmap icon) {
+    public Bitmap recreateIcon(Bitmap icon) {
         int[] offset = new int[2];
         Bitmap shadow = icon.extractAlpha(mBlurPaint, offset);
+        // Kept in the icon cache, so not taken from the pool
         Bitmap result = Bitmap.createBitmap(mIconSize, mIconSize, Config.ARGB_8888);
         mCanvas.setBitmap(result);
 
@@ -81,13 +87,11 @@ public class ShadowGenerator {
         return result;
     }
 
+    /**
+     * @return the generator of the calling thread.
+     */
     public static ShadowGenerator getInstance() {
-        synchronized (LOCK) {
-            if (sShadowGenerator == null) {
-                sShadowGenerator = new ShadowGenerator();
-            }
-        }
-        return sShadowGenerator;
+        return sShadowGenerator.get();
     }
 
 
@@ -18,6 +18,7 @@ package com.pixeldust.launcher.model;
 import android.content.Context;
 
 import java.text.Collator;
+import java.util.Collection;
 import java.util.Comparator;
 
 import com.pixeldust.launcher.AppInfo;
@@ -30,21 +31,27 @@ import com.pixeldust.launcher.util.Thunk;
  * Used to sort application name in all apps view and widget tray view.
  */
 public class AppNameComparator {
+    private final Context mContext;
     private final Collator mCollator;
     private final AbstractUserComparator<ItemInfo> mAppInfoComparator;
     private final Comparator<String> mSectionNameComparator;
+    @Thunk AppSortKeys mSortKeys;
 
     public AppNameComparator(Context context) {
+        mContext = context;
         mCollator = Collator.getInstance();
         mAppInfoComparator = new AbstractUserComparator<ItemInfo>(context) {
 
             @Override
             public final int compare(ItemInfo a, ItemInfo b) {
-                // Order by the title in the current locale
-                int result = compareTitles(a.title.toString(), b.title.toString());
-                if (result == 0 && a instanceof AppInfo && b instanceof AppInfo) {
-                    AppInfo aAppInfo = (AppInfo) a;
-                    AppInfo bAppInfo = (AppInfo) b;
+                if (!(a instanceof AppInfo && b instanceof AppInfo)) {
+                    // Order by the title in the current locale
+                    return compareTitles(a.title.toString(), b.title.toString());
+                }
+                AppInfo aAppInfo = (AppInfo) a;
+                AppInfo bAppInfo = (AppInfo) b;
+                int result = compareAppTitles(aAppInfo, bAppInfo);
+                if (result == 0) {
                     // If two apps have the same title, then order by the component name
                     result = aAppInfo.componentName.compareTo(bAppInfo.componentName);
                     if (result == 0) {
@@ -64,6 +71,28 @@ public class AppNameComparator {
         };
     }
 
+    /**
+     * Ensures that {@param apps} have sort keys for their title in the current locale, so that
+     * comparing them is a comparison of the keys. Must be called before sorting the apps.
+     */
+    public void updateSortKeys(Collection<AppInfo> apps) {
+        mSortKeys = AppSortKeys.getInstance(mContext);
+        for (AppInfo app : apps) {
+            mSortKeys.ensureKeys(app);
+        }
+    }
+
+    /**
+     * Returns the section name of {@param app}, computing its sort keys if needed.
+     */
+    public String getSectionName(AppInfo app) {
+        if (mSortKeys == null) {
+            mSortKeys = AppSortKeys.getInstance(mContext);
+        }
+        mSortKeys.ensureKeys(app);
+        return app.sectionName;
+    }
+
     /**
      * Returns a locale-aware comparator that will alphabetically order a list of applications.
      */
@@ -78,6 +107,26 @@ public class AppNameComparator {
         return mSectionNameComparator;
     }
 
+    /**
+     * Compares the titles of two apps through their collation keys, if they have keys for the
+     * current locale, and through {@link #compareTitles} otherwise.
+     */
+    @Thunk
+    int compareAppTitles(AppInfo a, AppInfo b) {
+        if (!hasSortKeys(a) || !hasSortKeys(b)) {
+            return compareTitles(a.title.toString(), b.title.toString());
+        }
+        // Same ordering as compareTitles()
+        if (a.startsWithLetterOrDigit != b.startsWithLetterOrDigit) {
+            return a.startsWithLetterOrDigit ? -1 : 1;
+        }
+        return a.collationKey.compareTo(b.collationKey);
+    }
+
+    private boolean hasSortKeys(AppInfo app) {
+        return mSortKeys != null && app.sortKeys == mSortKeys && app.sortKeysTitle == app.title;
+    }
+
     /**
      * Compares two titles with the same return value semantics as Comparator.
      */
@@ -0,0 +1,76 @@
+package com.pixeldust.launcher.model;
+
+import android.content.Context;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Locale;
+
+import com.pixeldust.launcher.AppInfo;
+import com.pixeldust.launcher.compat.AlphabeticIndexCompat;
+
+/**
+ * Computes the collation key and the section name of app titles for the current locale, so that
+ * they are resolved once per title, on the thread loading the title, rather than on every sort.
+ * <p>
+ * The keys are only valid for the locale they were computed in. {@link #onLocaleChanged} drops
+ * the current instance, and the keys of every {@link AppInfo} are then recomputed on first use.
+ */
+public class AppSortKeys {
+
+    private static final Object sInstanceLock = new Object();
+    private static AppSortKeys sInstance;
+
+    private final Locale mLocale;
+    // Collator and AlphabeticIndex are not thread safe, both are guarded by this
+    private final Collator mCollator;
+    private final AlphabeticIndexCompat mIndexer;
+
+    private AppSortKeys(Context context, Locale locale) {
+        mLocale = locale;
+        mCollator = Collator.getInstance(locale);
+        mIndexer = new AlphabeticIndexCompat(context);
+    }
+
+    public static AppSortKeys getInstance(Context context) {
+        Locale locale = context.getResources().getConfiguration().locale;
+        synchronized (sInstanceLock) {
+            if (sInstance == null || !sInstance.mLocale.equals(locale)) {
+                sInstance = new AppSortKeys(context.getApplicationContext(), locale);
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * Invalidates the keys computed so far, called when the locale of the device changes.
+     */
+    public static void onLocaleChanged() {
+        synchronized (sInstanceLock) {
+            sInstance = null;
+        }
+    }
+
+    /**
+     * Computes the keys of {@param info} for its current title.
+     */
+    public synchronized void updateKeys(AppInfo info) {
+        CharSequence title = info.title;
+        String s = title == null ? "" : title.toString();
+        info.collationKey = mCollator.getCollationKey(s);
+        info.sectionName = mIndexer.computeSectionName(s);
+        info.startsWithLetterOrDigit = s.length() > 0 && Character.isLetterOrDigit(s.codePointAt(0));
+        info.sortKeys = this;
+        info.sortKeysTitle = title;
+    }
+
+    /**
+     * Ensures that {@param info} has keys for its current title in the current locale, computing
+     * them if the title changed since, for example when the app is renamed.
+     */
+    public void ensureKeys(AppInfo info) {
+        if (info.sortKeys != this || info.sortKeysTitle != info.title) {
+            updateKeys(info);
+        }
+    }
+}
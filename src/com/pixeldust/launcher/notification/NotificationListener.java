@@ -17,7 +17,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-import com.pixeldust.launcher.LauncherModel;
+import com.pixeldust.launcher.util.Executors;
 import com.pixeldust.launcher.util.PackageUserKey;
 
 public class NotificationListener extends NotificationListenerService {
@@ -28,7 +28,7 @@ public class NotificationListener extends NotificationListenerService {
     private Callback mUiCallback = new C04642();
     private final Handler mUiHandler = new Handler(Looper.getMainLooper(), mUiCallback);
     private Callback mWorkerCallback = new C04631();
-    private final Handler mWorkerHandler = new Handler(LauncherModel.getWorkerLooper(), mWorkerCallback);
+    private final Handler mWorkerHandler = new Handler(Executors.UI_HELPER_EXECUTOR.getLooper(), mWorkerCallback);
 
     final class C04631 implements Callback {
         C04631() {
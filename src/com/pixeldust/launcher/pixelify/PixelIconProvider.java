@@ -104,6 +104,20 @@ public class PixelIconProvider {
         }
     }
 
+    public void removeIconsForPkg(String packageName) {
+        IconPack iconPack = sIconPack;
+        if (iconPack != null) {
+            iconPack.removeMaskedIcons(packageName);
+        }
+    }
+
+    public void onTrimMemory() {
+        IconPack iconPack = sIconPack;
+        if (iconPack != null) {
+            iconPack.trimMemory();
+        }
+    }
+
     public Drawable getIcon(final LauncherActivityInfoCompat info, int iconDpi) {
         Drawable drawable = sIconPack == null ? null : sIconPack.getIcon(info);
         boolean isRoundPack = isRoundIconPack(sIconPack);
@@ -39,7 +39,6 @@ import com.pixeldust.launcher.FastBitmapDrawable;
 import com.pixeldust.launcher.ItemInfo;
 import com.pixeldust.launcher.Launcher;
 import com.pixeldust.launcher.LauncherAnimUtils;
-import com.pixeldust.launcher.LauncherModel;
 import com.pixeldust.launcher.LogAccelerateInterpolator;
 import com.pixeldust.launcher.R;
 import com.pixeldust.launcher.Utilities;
@@ -57,6 +56,7 @@ import com.pixeldust.launcher.notification.NotificationItemView;
 import com.pixeldust.launcher.notification.NotificationKeyData;
 import com.pixeldust.launcher.shortcuts.DeepShortcutManager;
 import com.pixeldust.launcher.shortcuts.ShortcutsItemView;
+import com.pixeldust.launcher.util.Executors;
 import com.pixeldust.launcher.util.PackageUserKey;
 
 public class PopupContainerWithArrow extends AbstractFloatingView implements DragSource, DragController.DragListener {
@@ -214,7 +214,7 @@ public class PopupContainerWithArrow extends AbstractFloatingView implements Dra
         animateOpen();
         mLauncher.getDragController().addDragListener(this);
         mOriginalIcon.forceHideBadge(true);
-        new Handler(LauncherModel.getWorkerLooper()).postAtFrontOfQueue(PopupPopulator.createUpdateRunnable(mLauncher, itemInfo, new Handler(Looper.getMainLooper()), this, list, deepShortcuts, list2, mNotificationItemView, list3, systemShortcuts));
+        Executors.UI_HELPER_EXECUTOR.getHandler().postAtFrontOfQueue(PopupPopulator.createUpdateRunnable(mLauncher, itemInfo, new Handler(Looper.getMainLooper()), this, list, deepShortcuts, list2, mNotificationItemView, list3, systemShortcuts));
     }
 
     private void addDummyViews(PopupPopulator.Item[] itemArr, boolean z) {
@@ -0,0 +1,151 @@
+package com.pixeldust.launcher.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.io.PrintWriter;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of mutable bitmaps which are no longer used, shared by the code creating short-lived
+ * bitmaps like widget previews, drag previews and shadows.
+ * <p>
+ * Bitmaps are bucketed by config and by the power of two of their allocation size, and reused
+ * for any size which fits their allocation through {@link Bitmap#reconfigure}. The pool is lock
+ * free and safe to use from any thread. Its resident size is bounded, bitmaps returned to a full
+ * pool are left to the garbage collector.
+ */
+public class BitmapPool {
+
+    private static final int MAX_RESIDENT_BYTES = 8 * 1024 * 1024;
+    private static final int SIZE_CLASSES = 32;
+
+    private static final BitmapPool INSTANCE = new BitmapPool(MAX_RESIDENT_BYTES);
+
+    public static BitmapPool getInstance() {
+        return INSTANCE;
+    }
+
+    private final long mMaxResidentBytes;
+    // Indexed by [config.ordinal()][size class]
+    private final ConcurrentLinkedQueue<Bitmap>[][] mBuckets;
+
+    private final AtomicLong mResidentBytes = new AtomicLong();
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    BitmapPool(long maxResidentBytes) {
+        mMaxResidentBytes = maxResidentBytes;
+        Bitmap.Config[] configs = Bitmap.Config.values();
+        mBuckets = new ConcurrentLinkedQueue[configs.length][SIZE_CLASSES];
+        for (int i = 0; i < configs.length; i++) {
+            for (int j = 0; j < SIZE_CLASSES; j++) {
+                mBuckets[i][j] = new ConcurrentLinkedQueue<>();
+            }
+        }
+    }
+
+    /**
+     * @return a transparent mutable bitmap of the given size and config, reused if one fits.
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        int bytesPerPixel = getBytesPerPixel(config);
+        long byteCount = (long) width * height * bytesPerPixel;
+        if (byteCount > 0) {
+            int sizeClass = 63 - Long.numberOfLeadingZeros(byteCount);
+            ConcurrentLinkedQueue<Bitmap>[] buckets = mBuckets[config.ordinal()];
+            // The bitmaps in the same size class may or may not be large enough
+            if (sizeClass < SIZE_CLASSES) {
+                ConcurrentLinkedQueue<Bitmap> bucket = buckets[sizeClass];
+                for (Bitmap bitmap : bucket) {
+                    if (bitmap.getAllocationByteCount() >= byteCount && bucket.remove(bitmap)) {
+                        Bitmap result = reuse(bitmap, width, height, config);
+                        if (result != null) {
+                            return result;
+                        }
+                    }
+                }
+            }
+            // While all the ones in the next size class are
+            if (sizeClass + 1 < SIZE_CLASSES) {
+                Bitmap bitmap;
+                while ((bitmap = buckets[sizeClass + 1].poll()) != null) {
+                    Bitmap result = reuse(bitmap, width, height, config);
+                    if (result != null) {
+                        return result;
+                    }
+                }
+            }
+        }
+        mMisses.incrementAndGet();
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    private Bitmap reuse(Bitmap bitmap, int width, int height, Bitmap.Config config) {
+        mResidentBytes.addAndGet(-bitmap.getAllocationByteCount());
+        if (bitmap.isRecycled()) {
+            return null;
+        }
+        try {
+            bitmap.reconfigure(width, height, config);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        bitmap.eraseColor(Color.TRANSPARENT);
+        bitmap.setHasAlpha(true);
+        bitmap.setPremultiplied(true);
+        mHits.incrementAndGet();
+        return bitmap;
+    }
+
+    /**
+     * Returns {@param bitmap} to the pool. The caller must not use it afterwards.
+     */
+    public void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || getBytesPerPixel(bitmap.getConfig()) == 0) {
+            return;
+        }
+        int byteCount = bitmap.getAllocationByteCount();
+        int sizeClass = 63 - Long.numberOfLeadingZeros(byteCount);
+        if (sizeClass < 0 || sizeClass >= SIZE_CLASSES) {
+            return;
+        }
+        long resident;
+        do {
+            resident = mResidentBytes.get();
+            if (resident + byteCount > mMaxResidentBytes) {
+                return;
+            }
+        } while (!mResidentBytes.compareAndSet(resident, resident + byteCount));
+        mBuckets[bitmap.getConfig().ordinal()][sizeClass].offer(bitmap);
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        long hits = mHits.get();
+        long requests = hits + mMisses.get();
+        writer.println(prefix + "BitmapPool: requests=" + requests + " hitRate="
+                + (requests == 0 ? 0 : hits * 100 / requests) + "% residentBytes="
+                + mResidentBytes.get() + "/" + mMaxResidentBytes);
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == null) {
+            return 0;
+        }
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            case ARGB_8888:
+                return 4;
+            default:
+                // Hardware bitmaps can't be reused
+                return 0;
+        }
+    }
+}
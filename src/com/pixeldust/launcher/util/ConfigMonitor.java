@@ -23,15 +23,21 @@ import android.content.IntentFilter;
 import android.content.res.Configuration;
 import android.util.Log;
 
+import java.util.Locale;
+
+import com.pixeldust.launcher.model.AppSortKeys;
+
 /**
  * {@link BroadcastReceiver} which watches configuration changes and
- * restarts the process in case changes which affect the device profile occur.
+ * restarts the process in case changes which affect the device profile occur. Locale changes
+ * invalidate the app sort keys, the labels themselves are reloaded by the model.
  */
 public class ConfigMonitor extends BroadcastReceiver {
 
     private final Context mContext;
     private final float mFontScale;
     private final int mDensity;
+    private Locale mLocale;
 
     public ConfigMonitor(Context context) {
         mContext = context;
@@ -39,11 +45,16 @@ public class ConfigMonitor extends BroadcastReceiver {
         Configuration config = context.getResources().getConfiguration();
         mFontScale = config.fontScale;
         mDensity = getDensity(config);
+        mLocale = config.locale;
     }
 
     @Override
     public void onReceive(Context context, Intent intent) {
         Configuration config = context.getResources().getConfiguration();
+        if (!config.locale.equals(mLocale)) {
+            mLocale = config.locale;
+            AppSortKeys.onLocaleChanged();
+        }
         if (mFontScale != config.fontScale || mDensity != getDensity(config)) {
             Log.d("ConfigMonitor", "Configuration changed, restarting launcher");
             mContext.unregisterReceiver(this);
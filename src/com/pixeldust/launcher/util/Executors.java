@@ -0,0 +1,156 @@
+package com.pixeldust.launcher.util;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The set of executors used by the launcher for background work.
+ * <p>
+ * Work which reads or mutates the model must run on {@link #MODEL_EXECUTOR}, which executes
+ * tasks serially and in order. Pure I/O and bitmap work which does not touch the model (icon
+ * database writes) should use {@link #ICON_EXECUTOR} or {@link #THREAD_POOL_EXECUTOR} so that
+ * it never delays model updates. Widget previews have their own lanes, see
+ * {@link #WIDGET_PREVIEW_EXECUTOR}.
+ */
+public class Executors {
+
+    /** Used for work which needs to jump ahead of everything else in the pool. */
+    public static final int PRIORITY_HIGH = 0;
+    public static final int PRIORITY_DEFAULT = 1;
+    /** Used for speculative work whose result may never be displayed. */
+    public static final int PRIORITY_LOW = 2;
+
+    private static final int POOL_SIZE =
+            Math.max(2, Math.min(Runtime.getRuntime().availableProcessors() - 1, 4));
+    private static final int WIDGET_PREVIEW_POOL_SIZE = 2;
+    private static final int KEEP_ALIVE = 1;
+
+    /**
+     * A bounded pool for I/O and bitmap work. Tasks submitted through
+     * {@link #execute(Runnable, int)} are run in priority order, FIFO within a priority.
+     */
+    public static final PriorityThreadPoolExecutor THREAD_POOL_EXECUTOR =
+            new PriorityThreadPoolExecutor("launcher-pool", POOL_SIZE, false);
+
+    /**
+     * A small pool for rendering widget previews, as each render allocates a full size bitmap.
+     * Tasks are run LIFO within a priority: the latest requests are for the rows which were just
+     * scrolled into view, while the older ones are likely to be off screen and cancelled.
+     */
+    public static final PriorityThreadPoolExecutor WIDGET_PREVIEW_EXECUTOR =
+            new PriorityThreadPoolExecutor("launcher-previews", WIDGET_PREVIEW_POOL_SIZE, true);
+
+    /**
+     * Serial lane for writing rendered widget previews to their cache database, so that the
+     * writes don't queue behind the renders or the icon cache.
+     */
+    public static final LooperExecutor WIDGET_PREVIEW_WRITER =
+            new LooperExecutor("launcher-preview-writer", Process.THREAD_PRIORITY_BACKGROUND);
+
+    /**
+     * Serial lane for all model loading and mutations, ie. {@code BaseModelUpdateTask}s.
+     */
+    public static final LooperExecutor MODEL_EXECUTOR =
+            new LooperExecutor("launcher-loader", Process.THREAD_PRIORITY_DEFAULT);
+
+    /**
+     * Serial lane for the icon database, which needs ordered writes but should not block the
+     * model.
+     */
+    public static final LooperExecutor ICON_EXECUTOR =
+            new LooperExecutor("launcher-icons", Process.THREAD_PRIORITY_BACKGROUND);
+
+    /**
+     * Serial lane for short, user visible background work like populating popups, notification
+     * updates and package installer callbacks.
+     */
+    public static final LooperExecutor UI_HELPER_EXECUTOR =
+            new LooperExecutor("launcher-ui-helper", Process.THREAD_PRIORITY_FOREGROUND);
+
+    /**
+     * Serial lane for building the all apps list, so that the results of each search keystroke
+     * don't queue behind the work on {@link #UI_HELPER_EXECUTOR}.
+     */
+    public static final LooperExecutor APPS_LIST_EXECUTOR =
+            new LooperExecutor("launcher-apps-list", Process.THREAD_PRIORITY_FOREGROUND);
+
+    /**
+     * Serial lane for parsing icon packs, which can take seconds and must not hold a thread of
+     * {@link #THREAD_POOL_EXECUTOR} that the loader is waiting for.
+     */
+    public static final LooperExecutor ICON_PACK_EXECUTOR =
+            new LooperExecutor("launcher-iconpack", Process.THREAD_PRIORITY_BACKGROUND);
+
+    public static class PriorityThreadPoolExecutor extends ThreadPoolExecutor {
+
+        private final AtomicLong mSequence = new AtomicLong();
+        private final boolean mLifo;
+
+        PriorityThreadPoolExecutor(final String name, int poolSize, boolean lifo) {
+            super(poolSize, poolSize, KEEP_ALIVE, TimeUnit.SECONDS,
+                    new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger mCount = new AtomicInteger(1);
+
+                        @Override
+                        public Thread newThread(@NonNull final Runnable r) {
+                            return new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                    r.run();
+                                }
+                            }, name + "-" + mCount.getAndIncrement());
+                        }
+                    });
+            allowCoreThreadTimeOut(true);
+            mLifo = lifo;
+        }
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            if (command instanceof PriorityTask) {
+                super.execute(command);
+            } else {
+                execute(command, PRIORITY_DEFAULT);
+            }
+        }
+
+        public void execute(Runnable command, int priority) {
+            long sequence = mSequence.getAndIncrement();
+            super.execute(new PriorityTask(command, priority, mLifo ? -sequence : sequence));
+        }
+    }
+
+    private static class PriorityTask implements Runnable, Comparable<PriorityTask> {
+
+        private final Runnable mTask;
+        private final int mPriority;
+        private final long mSequence;
+
+        PriorityTask(Runnable task, int priority, long sequence) {
+            mTask = task;
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            mTask.run();
+        }
+
+        @Override
+        public int compareTo(@NonNull PriorityTask other) {
+            if (mPriority != other.mPriority) {
+                return mPriority < other.mPriority ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.pixeldust.launcher.util;
+
+import android.util.Log;
+import android.view.Choreographer;
+
+import com.pixeldust.launcher.config.ProviderConfig;
+
+/**
+ * Counts the frames drawn, and the frames dropped, during an interaction like a fast scroll of
+ * the all apps list or a swipe between workspace pages, and logs them once it ends. Views can
+ * also report their draws, to show how much is redrawn on each frame.
+ * <p>
+ * Nothing is tracked unless {@link ProviderConfig#TRACK_FRAMES} is set.
+ */
+public class FrameTracker implements Choreographer.FrameCallback {
+
+    private static final String TAG = "FrameTracker";
+
+    private static final float DEFAULT_REFRESH_RATE = 60f;
+
+    private final String mName;
+
+    private long mFrameIntervalNanos;
+    private boolean mTracking;
+    private long mStartTimeNanos;
+    private long mLastFrameTimeNanos;
+    private long mMaxFrameTimeNanos;
+    private int mFrameCount;
+    private int mDroppedFrames;
+    private int mDraws;
+
+    public FrameTracker(String name) {
+        mName = name;
+    }
+
+    public boolean isTracking() {
+        return mTracking;
+    }
+
+    /**
+     * Starts counting frames, if enabled and not already doing so.
+     *
+     * @param refreshRate the refresh rate of the display, or 0 if unknown.
+     */
+    public void start(float refreshRate) {
+        if (!ProviderConfig.TRACK_FRAMES || mTracking) {
+            return;
+        }
+        mTracking = true;
+        mFrameIntervalNanos = (long) (1000000000L /
+                (refreshRate > 0 ? refreshRate : DEFAULT_REFRESH_RATE));
+        mStartTimeNanos = 0;
+        mLastFrameTimeNanos = 0;
+        mMaxFrameTimeNanos = 0;
+        mFrameCount = 0;
+        mDroppedFrames = 0;
+        mDraws = 0;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * Counts a draw of a view taking part in the interaction, if frames are being counted.
+     */
+    public void onDraw() {
+        if (mTracking) {
+            mDraws++;
+        }
+    }
+
+    /**
+     * Stops counting frames and logs the result.
+     *
+     * @param details appended to the log, or null.
+     */
+    public void stop(String details) {
+        if (!mTracking) {
+            return;
+        }
+        mTracking = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+        if (mFrameCount > 0) {
+            Log.d(TAG, mName + ": " + mFrameCount + " frames in "
+                    + (mLastFrameTimeNanos - mStartTimeNanos) / 1000000 + "ms, "
+                    + mDroppedFrames + " dropped, slowest frame "
+                    + mMaxFrameTimeNanos / 1000000 + "ms"
+                    + (mDraws > 0 ? ", " + ((float) mDraws / mFrameCount) + " draws/frame" : "")
+                    + (details != null ? ", " + details : ""));
+        }
+    }
+
+    public void stop() {
+        stop(null);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mTracking) {
+            return;
+        }
+        if (mLastFrameTimeNanos == 0) {
+            mStartTimeNanos = frameTimeNanos;
+        } else {
+            long frameTime = frameTimeNanos - mLastFrameTimeNanos;
+            mMaxFrameTimeNanos = Math.max(mMaxFrameTimeNanos, frameTime);
+            // Vsyncs which passed without a frame, allowing half an interval of jitter
+            mDroppedFrames +=
+                    (int) ((frameTime + mFrameIntervalNanos / 2) / mFrameIntervalNanos) - 1;
+            mFrameCount++;
+        }
+        mLastFrameTimeNanos = frameTimeNanos;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+}
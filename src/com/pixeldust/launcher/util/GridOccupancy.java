@@ -2,22 +2,77 @@ package com.pixeldust.launcher.util;
 
 import android.graphics.Rect;
 
+import java.util.Arrays;
+
 import com.pixeldust.launcher.ItemInfo;
 
 /**
  * Utility object to manage the occupancy in a grid.
+ * <p>
+ * Each row is stored as a bit set in a long, bit x being set when cell x of the row is occupied,
+ * so that a span of a row is checked with a single mask. The longest run of vacant cells of each
+ * row is also kept, to skip the rows where a span can't fit. Grids are limited to 64 columns.
  */
 public class GridOccupancy {
 
+    public static final int MAX_COUNT_X = Long.SIZE;
+
     private final int mCountX;
     private final int mCountY;
 
-    public final boolean[][] cells;
+    // Occupied cells of each row, bit x for column x
+    private final long[] mRows;
+    // Longest run of vacant cells of each row, or -1 if it needs to be computed again
+    private final int[] mMaxFreeRuns;
+    // Incremented on every change, so that results computed from the grid can be reused
+    private int mModCount;
 
     public GridOccupancy(int countX, int countY) {
+        if (countX > MAX_COUNT_X) {
+            throw new IllegalArgumentException("Grid too wide: " + countX);
+        }
         mCountX = countX;
         mCountY = countY;
-        cells = new boolean[countX][countY];
+        mRows = new long[countY];
+        mMaxFreeRuns = new int[countY];
+        Arrays.fill(mMaxFreeRuns, countX);
+    }
+
+    public int getCountX() {
+        return mCountX;
+    }
+
+    public int getCountY() {
+        return mCountY;
+    }
+
+    public boolean isOccupied(int x, int y) {
+        return (mRows[y] & (1L << x)) != 0;
+    }
+
+    public int getModCount() {
+        return mModCount;
+    }
+
+    public int getVacantCellCount() {
+        return mCountX * mCountY - countOccupiedCells(0, 0, mCountX, mCountY);
+    }
+
+    /**
+     * @return the number of occupied cells in the given region, ignoring the parts of it which
+     * are outside of the grid.
+     */
+    public int countOccupiedCells(int cellX, int cellY, int spanX, int spanY) {
+        int x = Math.max(cellX, 0);
+        int x2 = Math.min(cellX + spanX, mCountX);
+        int y2 = Math.min(cellY + spanY, mCountY);
+        if (x2 <= x) return 0;
+        long mask = mask(x, x2 - x);
+        int count = 0;
+        for (int y = Math.max(cellY, 0); y < y2; y++) {
+            count += Long.bitCount(mRows[y] & mask);
+        }
+        return count;
     }
 
     /**
@@ -29,30 +84,43 @@ public class GridOccupancy {
      * @return true if a vacant cell was found
      */
     public boolean findVacantCell(int[] vacantOut, int spanX, int spanY) {
+        if (spanX <= 0 || spanY <= 0 || spanX > mCountX || spanY > mCountY) {
+            return false;
+        }
+        long allCells = mask(0, mCountX);
         for (int y = 0; (y + spanY) <= mCountY; y++) {
-            for (int x = 0; (x + spanX) <= mCountX; x++) {
-                boolean available = !cells[x][y];
-                out:
-                for (int i = x; i < x + spanX; i++) {
-                    for (int j = y; j < y + spanY; j++) {
-                        available = available && !cells[i][j];
-                        if (!available) break out;
-                    }
-                }
-                if (available) {
-                    vacantOut[0] = x;
-                    vacantOut[1] = y;
-                    return true;
+            long occupied = 0;
+            boolean fits = true;
+            for (int j = y; j < y + spanY; j++) {
+                if (getMaxFreeRun(j) < spanX) {
+                    fits = false;
+                    break;
                 }
+                occupied |= mRows[j];
+            }
+            if (!fits) {
+                continue;
+            }
+            // Bit x of starts is kept set if the cells x to x + spanX - 1 are all vacant
+            long vacant = ~occupied & allCells;
+            long starts = vacant;
+            for (int i = 1; i < spanX && starts != 0; i++) {
+                starts &= vacant >>> i;
+            }
+            if (starts != 0) {
+                vacantOut[0] = Long.numberOfTrailingZeros(starts);
+                vacantOut[1] = y;
+                return true;
             }
         }
         return false;
     }
 
     public void copyTo(GridOccupancy dest) {
-        for (int i = 0; i < mCountX; i++) {
-            System.arraycopy(cells[i], 0, dest.cells[i], 0, mCountY);
-        }
+        int rows = Math.min(mCountY, dest.mCountY);
+        System.arraycopy(mRows, 0, dest.mRows, 0, rows);
+        Arrays.fill(dest.mMaxFreeRuns, -1);
+        dest.mModCount++;
     }
 
     public boolean isRegionVacant(int x, int y, int spanX, int spanY) {
@@ -61,11 +129,23 @@ public class GridOccupancy {
         if (x < 0 || y < 0 || x2 >= mCountX || y2 >= mCountY) {
             return false;
         }
-        for (int i = x; i <= x2; i++) {
-            for (int j = y; j <= y2; j++) {
-                if (cells[i][j]) {
-                    return false;
-                }
+        long mask = mask(x, spanX);
+        for (int j = y; j <= y2; j++) {
+            if ((mRows[j] & mask) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether none of the occupied cells of {@param shape}, with its top left corner at
+     * x, y, are occupied in this grid. The shape must fit in the grid at that position.
+     */
+    public boolean isShapeVacant(int x, int y, GridOccupancy shape) {
+        for (int j = 0; j < shape.mCountY; j++) {
+            if (((mRows[y + j] >>> x) & shape.mRows[j]) != 0) {
+                return false;
             }
         }
         return true;
@@ -73,10 +153,18 @@ public class GridOccupancy {
 
     public void markCells(int cellX, int cellY, int spanX, int spanY, boolean value) {
         if (cellX < 0 || cellY < 0) return;
-        for (int x = cellX; x < cellX + spanX && x < mCountX; x++) {
-            for (int y = cellY; y < cellY + spanY && y < mCountY; y++) {
-                cells[x][y] = value;
+        int x2 = Math.min(cellX + spanX, mCountX);
+        int y2 = Math.min(cellY + spanY, mCountY);
+        if (x2 <= cellX) return;
+        mModCount++;
+        long mask = mask(cellX, x2 - cellX);
+        for (int y = cellY; y < y2; y++) {
+            if (value) {
+                mRows[y] |= mask;
+            } else {
+                mRows[y] &= ~mask;
             }
+            mMaxFreeRuns[y] = -1;
         }
     }
 
@@ -93,6 +181,27 @@ public class GridOccupancy {
     }
 
     public void clear() {
-        markCells(0, 0, mCountX, mCountY, false);
+        Arrays.fill(mRows, 0);
+        Arrays.fill(mMaxFreeRuns, mCountX);
+        mModCount++;
+    }
+
+    private int getMaxFreeRun(int y) {
+        int run = mMaxFreeRuns[y];
+        if (run < 0) {
+            // Each step shortens every run of vacant cells by one
+            long vacant = ~mRows[y] & mask(0, mCountX);
+            run = 0;
+            while (vacant != 0) {
+                vacant &= vacant >>> 1;
+                run++;
+            }
+            mMaxFreeRuns[y] = run;
+        }
+        return run;
+    }
+
+    private static long mask(int x, int span) {
+        return (span >= Long.SIZE ? -1L : (1L << span) - 1) << x;
     }
 }
@@ -0,0 +1,185 @@
+package com.pixeldust.launcher.util;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import com.pixeldust.launcher.Utilities;
+
+/**
+ * A read-only file which packs uncompressed icon bitmaps one after the other, preceded by an
+ * index of their offsets. The pixel data is memory-mapped, so that an icon can be copied straight
+ * into a bitmap without going through a cursor or decoding a PNG.
+ * <p>
+ * File layout: magic, version, index length, the index (key, label, width, height, config,
+ * offset) and finally the pixel data of all the icons.
+ */
+public class IconAtlas {
+
+    private static final String TAG = "IconAtlas";
+
+    private static final int MAGIC = 0x49434f41; // ICOA
+
+    public static class Entry {
+        public final String label;
+        private final int mWidth;
+        private final int mHeight;
+        private final Bitmap.Config mConfig;
+        private final int mOffset;
+
+        Entry(String label, int width, int height, Bitmap.Config config, int offset) {
+            this.label = label;
+            mWidth = width;
+            mHeight = height;
+            mConfig = config;
+            mOffset = offset;
+        }
+    }
+
+    private final HashMap<String, Entry> mIndex;
+    private final MappedByteBuffer mPixels;
+
+    private IconAtlas(HashMap<String, Entry> index, MappedByteBuffer pixels) {
+        mIndex = index;
+        mPixels = pixels;
+    }
+
+    public Entry getEntry(String key) {
+        return mIndex.get(key);
+    }
+
+    /**
+     * Copies the pixels of the entry into a new bitmap. This can be called from any thread.
+     */
+    public Bitmap getIcon(Entry entry) {
+        Bitmap icon = Bitmap.createBitmap(entry.mWidth, entry.mHeight, entry.mConfig);
+        ByteBuffer pixels = mPixels.duplicate();
+        pixels.position(entry.mOffset);
+        pixels.limit(entry.mOffset + icon.getByteCount());
+        icon.copyPixelsFromBuffer(pixels);
+        return icon;
+    }
+
+    /**
+     * @return the atlas stored in {@param file}, or null if it doesn't exist or was written with a
+     * different {@param version}.
+     */
+    public static IconAtlas load(File file, int version) {
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        RandomAccessFile raf = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            if (in.readInt() != MAGIC || in.readInt() != version) {
+                return null;
+            }
+            int indexLength = in.readInt();
+            int count = in.readInt();
+            HashMap<String, Entry> index = new HashMap<>(count);
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                String label = in.readUTF();
+                int width = in.readInt();
+                int height = in.readInt();
+                Bitmap.Config config = Bitmap.Config.values()[in.readByte()];
+                index.put(key, new Entry(label, width, height, config, in.readInt()));
+            }
+
+            // The header has 3 ints before the index.
+            long dataStart = 3 * 4 + indexLength;
+            raf = new RandomAccessFile(file, "r");
+            MappedByteBuffer pixels = raf.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, dataStart, raf.length() - dataStart);
+            return new IconAtlas(index, pixels);
+        } catch (IOException | RuntimeException e) {
+            Log.d(TAG, "Error reading icon atlas", e);
+            return null;
+        } finally {
+            Utilities.closeSilently(in);
+            Utilities.closeSilently(raf);
+        }
+    }
+
+    /**
+     * Collects icons and writes them to a new atlas file.
+     */
+    public static class Writer {
+
+        private final ArrayList<String> mKeys = new ArrayList<>();
+        private final ArrayList<String> mLabels = new ArrayList<>();
+        private final ArrayList<Bitmap> mIcons = new ArrayList<>();
+
+        public void add(String key, String label, Bitmap icon) {
+            if (icon.getConfig() == null) {
+                return;
+            }
+            mKeys.add(key);
+            mLabels.add(label == null ? "" : label);
+            mIcons.add(icon);
+        }
+
+        /**
+         * Writes the atlas to a temporary file, and atomically replaces {@param file} with it.
+         */
+        public boolean write(File file, int version) {
+            File tmp = new File(file.getPath() + ".tmp");
+            FileOutputStream out = null;
+            try {
+                ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+                DataOutputStream index = new DataOutputStream(indexBytes);
+                index.writeInt(mKeys.size());
+                int offset = 0;
+                for (int i = 0; i < mKeys.size(); i++) {
+                    Bitmap icon = mIcons.get(i);
+                    index.writeUTF(mKeys.get(i));
+                    index.writeUTF(mLabels.get(i));
+                    index.writeInt(icon.getWidth());
+                    index.writeInt(icon.getHeight());
+                    index.writeByte(icon.getConfig().ordinal());
+                    index.writeInt(offset);
+                    offset += icon.getByteCount();
+                }
+                index.flush();
+
+                out = new FileOutputStream(tmp);
+                DataOutputStream header = new DataOutputStream(out);
+                header.writeInt(MAGIC);
+                header.writeInt(version);
+                header.writeInt(indexBytes.size());
+                header.flush();
+                indexBytes.writeTo(out);
+
+                ByteBuffer pixels = ByteBuffer.allocate(offset);
+                for (Bitmap icon : mIcons) {
+                    icon.copyPixelsToBuffer(pixels);
+                }
+                out.write(pixels.array());
+                out.getFD().sync();
+                out.close();
+                out = null;
+                return tmp.renameTo(file);
+            } catch (IOException e) {
+                Log.d(TAG, "Error writing icon atlas", e);
+                return false;
+            } finally {
+                Utilities.closeSilently(out);
+                tmp.delete();
+            }
+        }
+    }
+}
@@ -41,8 +41,14 @@ public class IconNormalizer {
 
     private static final int MIN_VISIBLE_ALPHA = 40;
 
-    private static final Object LOCK = new Object();
-    private static IconNormalizer sIconNormalizer;
+    // Icons are normalized on several threads at once, each with its own buffers
+    private static final ThreadLocal<IconNormalizer> sIconNormalizer =
+            new ThreadLocal<IconNormalizer>() {
+                @Override
+                protected IconNormalizer initialValue() {
+                    return new IconNormalizer();
+                }
+            };
 
     private final int mMaxSize;
     private final Bitmap mBitmap;
@@ -78,7 +84,7 @@ public class IconNormalizer {
      *
      * @param outBounds optional rect to receive the fraction distance from each edge.
      */
-    public synchronized float getScale(Drawable d, RectF outBounds) {
+    public float getScale(Drawable d, RectF outBounds) {
         int width = d.getIntrinsicWidth();
         int height = d.getIntrinsicHeight();
         if (width <= 0 || height <= 0) {
@@ -240,12 +246,10 @@ public class IconNormalizer {
         }
     }
 
+    /**
+     * @return the normalizer of the calling thread.
+     */
     public static IconNormalizer getInstance() {
-        synchronized (LOCK) {
-            if (sIconNormalizer == null) {
-                sIconNormalizer = new IconNormalizer();
-            }
-        }
-        return sIconNormalizer;
+        return sIconNormalizer.get();
     }
 }
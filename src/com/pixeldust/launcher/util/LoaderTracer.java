@@ -0,0 +1,116 @@
+package com.pixeldust.launcher.util;
+
+import android.os.SystemClock;
+import android.os.Trace;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Records how long each phase of a load-and-bind takes, relative to the start of the loader.
+ * Phases are also emitted as {@link Trace} sections, so that they show up in systrace.
+ * <p>
+ * Phases must be begun and ended on the same thread, one at a time. Marks, for events like the
+ * first frame, can be added from any thread.
+ */
+public class LoaderTracer {
+
+    public static final String PHASE_LOAD_WORKSPACE = "loadWorkspace";
+    // Only the posting of the bind tasks to the UI thread, which ends with MARK_WORKSPACE_BOUND
+    public static final String PHASE_POST_BIND_WORKSPACE = "postBindWorkspace";
+    public static final String PHASE_LOAD_ALL_APPS = "loadAllApps";
+    public static final String PHASE_UPDATE_ICON_CACHE = "updateIconCache";
+    public static final String PHASE_LOAD_DEEP_SHORTCUTS = "loadDeepShortcuts";
+
+    public static final String MARK_WORKSPACE_BOUND = "workspaceBound";
+    public static final String MARK_FIRST_FRAME = "firstFrame";
+
+    private static final String TRACE_PREFIX = "Launcher.";
+
+    private static class Phase {
+        final String name;
+        final long start;
+        long end = -1;
+        int itemCount = -1;
+
+        Phase(String name, long start) {
+            this.name = name;
+            this.start = start;
+        }
+    }
+
+    // All guarded by this
+    private final ArrayList<Phase> mPhases = new ArrayList<>();
+    private long mStartTime = -1;
+    private int mLoadCount;
+    private Phase mCurrentPhase;
+
+    /**
+     * Starts a new trace, discarding the phases of the previous load.
+     */
+    public synchronized void start() {
+        mPhases.clear();
+        mCurrentPhase = null;
+        mStartTime = SystemClock.uptimeMillis();
+        mLoadCount++;
+    }
+
+    public void beginPhase(String name) {
+        synchronized (this) {
+            mCurrentPhase = new Phase(name, SystemClock.uptimeMillis());
+            mPhases.add(mCurrentPhase);
+        }
+        Trace.beginSection(TRACE_PREFIX + name);
+    }
+
+    /**
+     * Ends the phase started by the last {@link #beginPhase} call on this thread.
+     *
+     * @param itemCount the number of items processed by the phase, or -1 if it doesn't apply.
+     */
+    public void endPhase(int itemCount) {
+        Trace.endSection();
+        synchronized (this) {
+            if (mCurrentPhase != null) {
+                mCurrentPhase.end = SystemClock.uptimeMillis();
+                mCurrentPhase.itemCount = itemCount;
+                mCurrentPhase = null;
+            }
+        }
+    }
+
+    /**
+     * Records an event of the current load, if it hasn't been recorded already.
+     */
+    public synchronized void mark(String name) {
+        if (mStartTime < 0) {
+            return;
+        }
+        for (Phase phase : mPhases) {
+            if (phase.name.equals(name)) {
+                return;
+            }
+        }
+        long now = SystemClock.uptimeMillis();
+        Phase mark = new Phase(name, now);
+        mark.end = now;
+        mPhases.add(mark);
+    }
+
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "Loader phases (load #" + mLoadCount + "):");
+        for (Phase phase : mPhases) {
+            StringBuilder line = new StringBuilder(prefix).append("  ").append(phase.name)
+                    .append(": start=+").append(phase.start - mStartTime).append("ms");
+            if (phase.end < 0) {
+                line.append(" (running)");
+            } else if (phase.end != phase.start || phase.itemCount >= 0) {
+                line.append(" duration=").append(phase.end - phase.start).append("ms");
+            }
+            if (phase.itemCount >= 0) {
+                line.append(" items=").append(phase.itemCount);
+            }
+            writer.println(line);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.pixeldust.launcher.util;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+
+/**
+ * An executor which runs all the tasks serially, in order, on a dedicated {@link HandlerThread}.
+ */
+public class LooperExecutor implements Executor {
+
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    public LooperExecutor(String name, int priority) {
+        mThread = new HandlerThread(name, priority);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Runs the task immediately if called on the executor thread, otherwise posts it.
+     */
+    @Override
+    public void execute(@NonNull Runnable runnable) {
+        if (isCurrentThread()) {
+            runnable.run();
+        } else {
+            mHandler.post(runnable);
+        }
+    }
+
+    /**
+     * Posts the task even if called on the executor thread.
+     */
+    public void post(Runnable runnable) {
+        mHandler.post(runnable);
+    }
+
+    public boolean isCurrentThread() {
+        return mThread.getThreadId() == Process.myTid();
+    }
+
+    public HandlerThread getThread() {
+        return mThread;
+    }
+
+    public Handler getHandler() {
+        return mHandler;
+    }
+
+    public Looper getLooper() {
+        return mThread.getLooper();
+    }
+}
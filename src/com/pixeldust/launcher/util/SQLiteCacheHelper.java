@@ -8,6 +8,9 @@ import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteFullException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
+
+import java.util.List;
+
 /**
  * An extension of {@link SQLiteOpenHelper} with utility methods for a single table cache DB.
  * Any exception during write operations are ignored, and any version change causes a DB reset.
@@ -17,6 +20,7 @@ public abstract class SQLiteCacheHelper {
 
     private final String mTableName;
     private final MySQLiteOpenHelper mOpenHelper;
+    private final SQLiteStatementCache mStatementCache = new SQLiteStatementCache();
 
     private boolean mIgnoreWrites;
 
@@ -51,12 +55,38 @@ public abstract class SQLiteCacheHelper {
             return;
         }
         try {
-            mOpenHelper.getWritableDatabase().insertWithOnConflict(
-                    mTableName, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            mStatementCache.insert(
+                    mOpenHelper.getWritableDatabase(), mTableName, null, values, true);
+        } catch (SQLiteFullException e) {
+            onDiskFull(e);
+        } catch (SQLiteException e) {
+            Log.d(TAG, "Ignoring sqlite exception", e);
+        }
+    }
+
+    /**
+     * Inserts or replaces all the rows in a single transaction.
+     */
+    public void insertOrReplace(List<ContentValues> rows) {
+        if (mIgnoreWrites || rows.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase db = null;
+        try {
+            db = mOpenHelper.getWritableDatabase();
+            db.beginTransaction();
+            for (ContentValues values : rows) {
+                mStatementCache.insert(db, mTableName, null, values, true);
+            }
+            db.setTransactionSuccessful();
         } catch (SQLiteFullException e) {
             onDiskFull(e);
         } catch (SQLiteException e) {
             Log.d(TAG, "Ignoring sqlite exception", e);
+        } finally {
+            if (db != null && db.inTransaction()) {
+                db.endTransaction();
+            }
         }
     }
 
@@ -65,7 +95,8 @@ public abstract class SQLiteCacheHelper {
             return;
         }
         try {
-            mOpenHelper.getWritableDatabase().update(mTableName, values, whereClause, whereArgs);
+            mStatementCache.update(
+                    mOpenHelper.getWritableDatabase(), mTableName, values, whereClause, whereArgs);
         } catch (SQLiteFullException e) {
             onDiskFull(e);
         } catch (SQLiteException e) {
@@ -95,6 +126,8 @@ public abstract class SQLiteCacheHelper {
 
         public MySQLiteOpenHelper(Context context, String name, int version) {
             super(new NoLocaleSqliteContext(context), name, null, version);
+            // Lets the cache be read while it is being written
+            setWriteAheadLoggingEnabled(true);
         }
 
         @Override
@@ -117,6 +150,7 @@ public abstract class SQLiteCacheHelper {
         }
 
         private void clearDB(SQLiteDatabase db) {
+            mStatementCache.clear();
             db.execSQL("DROP TABLE IF EXISTS " + mTableName);
             onCreate(db);
         }
@@ -0,0 +1,161 @@
+package com.pixeldust.launcher.util;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the insert and update statements of a database compiled, so that repeated writes of the
+ * same columns, like the icon cache entries or the moves of workspace items, are only bound and
+ * executed instead of having their SQL built and compiled on every call.
+ * <p>
+ * A statement keeps its bindings until it is executed, so the users of the cache are serialized.
+ * The database connection is always taken before the lock of the cache, with a transaction, as a
+ * thread in a transaction holding the connection could otherwise wait for the lock held by a
+ * thread waiting for the connection.
+ */
+public class SQLiteStatementCache {
+
+    private static final int MAX_STATEMENTS = 8;
+
+    private SQLiteDatabase mDb;
+    private final LinkedHashMap<String, SQLiteStatement> mStatements =
+            new LinkedHashMap<String, SQLiteStatement>(MAX_STATEMENTS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+                    if (size() > MAX_STATEMENTS) {
+                        eldest.getValue().close();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    /**
+     * @see SQLiteDatabase#insertWithOnConflict(String, String, ContentValues, int)
+     */
+    public long insert(SQLiteDatabase db, String table, String nullColumnHack,
+            ContentValues values, boolean replace) {
+        if (values == null || values.size() == 0) {
+            return db.insertWithOnConflict(table, nullColumnHack, values, replace
+                    ? SQLiteDatabase.CONFLICT_REPLACE : SQLiteDatabase.CONFLICT_NONE);
+        }
+        StringBuilder sql = new StringBuilder(128)
+                .append(replace ? "INSERT OR REPLACE INTO " : "INSERT INTO ")
+                .append(table).append('(');
+        int i = 0;
+        for (String column : values.keySet()) {
+            sql.append(i++ > 0 ? "," : "").append(column);
+        }
+        sql.append(") VALUES (");
+        for (i = 0; i < values.size(); i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        sql.append(')');
+
+        db.beginTransactionNonExclusive();
+        try {
+            synchronized (this) {
+                SQLiteStatement statement = getStatement(db, sql.toString());
+                bindValues(statement, values);
+                try {
+                    return statement.executeInsert();
+                } finally {
+                    statement.clearBindings();
+                }
+            }
+        } finally {
+            endTransaction(db);
+        }
+    }
+
+    /**
+     * @see SQLiteDatabase#update(String, ContentValues, String, String[])
+     */
+    public int update(SQLiteDatabase db, String table, ContentValues values,
+            String whereClause, String[] whereArgs) {
+        if (values == null || values.size() == 0) {
+            return db.update(table, values, whereClause, whereArgs);
+        }
+        StringBuilder sql = new StringBuilder(128).append("UPDATE ").append(table).append(" SET ");
+        int i = 0;
+        for (String column : values.keySet()) {
+            sql.append(i++ > 0 ? "," : "").append(column).append("=?");
+        }
+        if (whereClause != null && !whereClause.isEmpty()) {
+            sql.append(" WHERE ").append(whereClause);
+        }
+
+        db.beginTransactionNonExclusive();
+        try {
+            synchronized (this) {
+                SQLiteStatement statement = getStatement(db, sql.toString());
+                int index = bindValues(statement, values);
+                if (whereArgs != null) {
+                    for (String arg : whereArgs) {
+                        DatabaseUtils.bindObjectToProgram(statement, ++index, arg);
+                    }
+                }
+                try {
+                    return statement.executeUpdateDelete();
+                } finally {
+                    statement.clearBindings();
+                }
+            }
+        } finally {
+            endTransaction(db);
+        }
+    }
+
+    /**
+     * Ends the transaction of a single write. A failed statement has no effect, so the
+     * transaction is always marked successful, which keeps a failure from rolling back the
+     * transaction of the caller, if any.
+     */
+    private static void endTransaction(SQLiteDatabase db) {
+        db.setTransactionSuccessful();
+        db.endTransaction();
+    }
+
+    /**
+     * Closes all the statements, for example before the database is closed.
+     */
+    public synchronized void clear() {
+        for (SQLiteStatement statement : mStatements.values()) {
+            statement.close();
+        }
+        mStatements.clear();
+        mDb = null;
+    }
+
+    private SQLiteStatement getStatement(SQLiteDatabase db, String sql) {
+        if (db != mDb) {
+            // The database was reopened, the statements belong to the old instance
+            clear();
+            mDb = db;
+        }
+        SQLiteStatement statement = mStatements.get(sql);
+        if (statement == null) {
+            statement = db.compileStatement(sql);
+            mStatements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Binds the values in the iteration order of their columns.
+     *
+     * @return the index of the last bound value.
+     */
+    private static int bindValues(SQLiteStatement statement, ContentValues values) {
+        int index = 0;
+        for (String column : values.keySet()) {
+            DatabaseUtils.bindObjectToProgram(statement, ++index, values.get(column));
+        }
+        return index;
+    }
+}
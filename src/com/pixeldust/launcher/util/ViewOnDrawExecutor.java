@@ -77,6 +77,9 @@ public class ViewOnDrawExecutor implements Executor, OnDrawListener, Runnable,
 
     @Override
     public void onDraw() {
+        if (!mFirstDrawCompleted) {
+            mLauncher.getModel().getLoaderTracer().mark(LoaderTracer.MARK_FIRST_FRAME);
+        }
         mFirstDrawCompleted = true;
         mAttachedView.post(this);
     }
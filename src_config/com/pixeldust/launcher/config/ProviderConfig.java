@@ -19,4 +19,14 @@ package com.pixeldust.launcher.config;
 public class ProviderConfig {
 
     public static final String AUTHORITY = "com.pixeldust.launcher.settings";
+
+    // Verifies every model write against the in-memory model, reporting mismatches with the
+    // stack of the caller. Expensive, only meant for dogfood builds.
+    public static final boolean IS_DOGFOOD_BUILD = false;
+
+    // Fraction of the model writes verified with the stack of the caller on other builds.
+    public static final float MODEL_WRITE_STACK_SAMPLE_RATE = 0.01f;
+
+    // Counts and logs the frames drawn during scrolls, see FrameTracker. Only meant for debugging.
+    public static final boolean TRACK_FRAMES = false;
 }
@@ -0,0 +1,170 @@
+package com.pixeldust.launcher.allapps;
+
+import android.content.ComponentName;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.v7.widget.RecyclerView;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import com.pixeldust.launcher.AppInfo;
+import com.pixeldust.launcher.util.Executors;
+
+/**
+ * Measures the cost of a single package event on {@link AlphabeticalAppsList}, compared with
+ * setting all the apps again. Each event is timed until its adapter items are computed and
+ * diffed on the apps list thread, but not dispatched to the adapter.
+ */
+public class AlphabeticalAppsListBenchmarkTest extends InstrumentationTestCase {
+
+    private static final String TAG = "AppsListBenchmark";
+
+    private static final int APP_COUNT = 300;
+    private static final int EVENTS = 50;
+    private static final int APPS_PER_ROW = 5;
+
+    private AlphabeticalAppsList mAppsList;
+    private List<AppInfo> mApps;
+    private Random mRandom;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRandom = new Random(APP_COUNT);
+        mApps = new ArrayList<>();
+        for (int i = 0; i < APP_COUNT; i++) {
+            mApps.add(createApp(i));
+        }
+        mAppsList = new AlphabeticalAppsList(getInstrumentation().getTargetContext());
+        mAppsList.setAdapter(new CountingAdapter(mAppsList));
+        mAppsList.setNumAppsPerRow(APPS_PER_ROW, null);
+        mAppsList.setApps(mApps);
+        waitForAdapterItems();
+    }
+
+    public void testIncrementalEventsMatchFullRebuild() throws Exception {
+        for (int i = 0; i < EVENTS; i++) {
+            AppInfo app = createApp(APP_COUNT + i);
+            mApps.add(app);
+            mAppsList.addApps(Collections.singletonList(app));
+
+            AppInfo removed = mApps.remove(mRandom.nextInt(mApps.size()));
+            mAppsList.removeApps(Collections.singletonList(removed));
+        }
+        waitForAdapterItems();
+        List<AppInfo> incremental = new ArrayList<>(mAppsList.getApps());
+        int rows = mAppsList.getNumAppRows();
+
+        mAppsList.setApps(mApps);
+        waitForAdapterItems();
+        assertEquals(incremental, mAppsList.getApps());
+        assertEquals(rows, mAppsList.getNumAppRows());
+    }
+
+    public void testBenchmark() throws Exception {
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < EVENTS; i++) {
+            mAppsList.setApps(mApps);
+            waitForSnapshot();
+        }
+        long fullTime = (SystemClock.elapsedRealtimeNanos() - start) / EVENTS;
+        waitForAdapterItems();
+        List<AppInfo> expected = new ArrayList<>(mAppsList.getApps());
+        int rows = mAppsList.getNumAppRows();
+        assertEquals(APP_COUNT, expected.size());
+
+        long addTime = 0;
+        long updateTime = 0;
+        long removeTime = 0;
+        for (int i = 0; i < EVENTS; i++) {
+            AppInfo app = createApp(APP_COUNT + i);
+            start = SystemClock.elapsedRealtimeNanos();
+            mAppsList.addApps(Collections.singletonList(app));
+            waitForSnapshot();
+            addTime += SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            mAppsList.updateApps(Collections.singletonList(app));
+            waitForSnapshot();
+            updateTime += SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            mAppsList.removeApps(Collections.singletonList(app));
+            waitForSnapshot();
+            removeTime += SystemClock.elapsedRealtimeNanos() - start;
+        }
+
+        // Every app added was removed again
+        waitForAdapterItems();
+        assertEquals(expected, mAppsList.getApps());
+        assertEquals(rows, mAppsList.getNumAppRows());
+        Log.i(TAG, APP_COUNT + " apps: full rebuild " + (fullTime / 1000) + "us, add "
+                + (addTime / EVENTS / 1000) + "us, update " + (updateTime / EVENTS / 1000)
+                + "us, remove " + (removeTime / EVENTS / 1000) + "us");
+    }
+
+    /**
+     * Waits for the pending adapter items to be computed, and swapped in on the UI thread.
+     */
+    private void waitForAdapterItems() throws InterruptedException {
+        waitForSnapshot();
+        getInstrumentation().waitForIdleSync();
+    }
+
+    /**
+     * Waits for the pending adapter items to be computed on the apps list thread.
+     */
+    private void waitForSnapshot() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        Executors.APPS_LIST_EXECUTOR.post(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        latch.await();
+    }
+
+    private AppInfo createApp(int id) {
+        AppInfo info = new AppInfo();
+        info.title = (char) ('A' + mRandom.nextInt(26)) + "app " + mRandom.nextInt(1000);
+        info.componentName = new ComponentName("Test", "app" + id);
+        info.user = Process.myUserHandle();
+        return info;
+    }
+
+    /**
+     * An adapter with empty views, so that the diffs are computed and dispatched as they would
+     * be for the grid.
+     */
+    private static class CountingAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+
+        private final AlphabeticalAppsList mAppsList;
+
+        CountingAdapter(AlphabeticalAppsList appsList) {
+            mAppsList = appsList;
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            return new RecyclerView.ViewHolder(new View(parent.getContext())) { };
+        }
+
+        @Override
+        public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+        }
+
+        @Override
+        public int getItemCount() {
+            return mAppsList.getAdapterItems().size();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.pixeldust.launcher.allapps;
+
+import android.content.ComponentName;
+import android.os.Process;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import com.pixeldust.launcher.AppInfo;
+import com.pixeldust.launcher.util.ComponentKey;
+
+/**
+ * Compares {@link AppSearchIndex} with the linear scan of {@link DefaultAppSearchAlgorithm} over
+ * synthetic app titles.
+ */
+public class AppSearchIndexBenchmarkTest extends InstrumentationTestCase {
+
+    private static final String TAG = "AppSearchIndexBenchmark";
+
+    private static final int APP_COUNT = 1000;
+    private static final int ITERATIONS = 20;
+
+    private static final String[] WORDS = {"mail", "Maps", "photo", "Camera", "music", "Play",
+            "store", "clock", "Calendar", "notes", "Drive", "chat", "news", "weather", "2048",
+            "files", "VPN", "radio", "fit", "Banking", "&", "pay", "docs", "Sheets", "cow"};
+    private static final String[] QUERIES = {"m", "ma", "mail", "cam", "pl", "2", "20", "&",
+            "vpn", "sheets", "x", "weatherz", "cow", "o"};
+
+    private List<AppInfo> mApps;
+    private DefaultAppSearchAlgorithm mLinearAlgorithm;
+    private DefaultAppSearchAlgorithm mIndexAlgorithm;
+    private AppSearchIndex mIndex;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mApps = createApps(APP_COUNT);
+        mIndex = new AppSearchIndex();
+        mIndex.setApps(mApps);
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mLinearAlgorithm = new DefaultAppSearchAlgorithm(mApps);
+                mIndexAlgorithm = new DefaultAppSearchAlgorithm(mApps, mIndex);
+            }
+        });
+    }
+
+    public void testIndexMatchesLinearScan() {
+        for (String query : QUERIES) {
+            assertEquals(query, mLinearAlgorithm.getTitleMatchResult(query),
+                    mIndexAlgorithm.getTitleMatchResult(query));
+        }
+    }
+
+    public void testIncrementalUpdates() {
+        List<AppInfo> removed = new ArrayList<>(mApps.subList(0, 100));
+        mApps.removeAll(removed);
+        mIndex.removeApps(removed);
+
+        List<AppInfo> added = createApps(50);
+        mApps.addAll(added);
+        mIndex.addOrUpdateApps(added);
+        mIndex.updateOrder(mApps);
+
+        for (String query : QUERIES) {
+            assertEquals(query, mLinearAlgorithm.getTitleMatchResult(query),
+                    mIndexAlgorithm.getTitleMatchResult(query));
+        }
+    }
+
+    public void testBenchmark() {
+        long linearTime = 0;
+        long indexTime = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (String query : QUERIES) {
+                long start = SystemClock.elapsedRealtimeNanos();
+                List<ComponentKey> expected = mLinearAlgorithm.getTitleMatchResult(query);
+                linearTime += SystemClock.elapsedRealtimeNanos() - start;
+
+                start = SystemClock.elapsedRealtimeNanos();
+                List<ComponentKey> result = mIndexAlgorithm.getTitleMatchResult(query);
+                indexTime += SystemClock.elapsedRealtimeNanos() - start;
+
+                assertEquals(query, expected, result);
+            }
+        }
+        int queries = ITERATIONS * QUERIES.length;
+        Log.i(TAG, APP_COUNT + " apps: linear scan " + (linearTime / queries / 1000)
+                + "us/query, index " + (indexTime / queries / 1000) + "us/query");
+    }
+
+    private static List<AppInfo> createApps(int count) {
+        Random random = new Random(count);
+        ArrayList<AppInfo> apps = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder title = new StringBuilder();
+            int words = 1 + random.nextInt(3);
+            for (int j = 0; j < words; j++) {
+                if (j > 0 && random.nextBoolean()) {
+                    title.append(' ');
+                }
+                title.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            AppInfo info = new AppInfo();
+            info.title = title.toString();
+            info.componentName = new ComponentName("Test" + count, "app" + i);
+            info.user = Process.myUserHandle();
+            apps.add(info);
+        }
+        // The apps are shown, and searched, in alphabetical order.
+        Collections.sort(apps, new Comparator<AppInfo>() {
+            @Override
+            public int compare(AppInfo a, AppInfo b) {
+                return a.title.toString().compareToIgnoreCase(b.title.toString());
+            }
+        });
+        return apps;
+    }
+}
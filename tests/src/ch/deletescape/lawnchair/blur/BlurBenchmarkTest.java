@@ -0,0 +1,342 @@
+package com.pixeldust.launcher.blur;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Compares {@link FastBlur} with the stack blur it replaced, at common screen sizes.
+ */
+public class BlurBenchmarkTest extends InstrumentationTestCase {
+
+    private static final String TAG = "BlurBenchmarkTest";
+
+    private static final int[][] SIZES = {{1080, 1920}, {1440, 2560}};
+    private static final int[] RADII = {25, 75, 150};
+    private static final int ITERATIONS = 3;
+    // The largest mean difference of the color channels of a pixel allowed between the two
+    // blurs. Leaving the image as is gives a larger error, even at the smallest radius.
+    private static final float MAX_MEAN_ERROR = 4;
+    // The blur must bring the variance of the color channels below this fraction of the
+    // variance of the image.
+    private static final float MAX_VARIANCE_RATIO = 0.95f;
+
+    public void testBenchmark() {
+        FastBlur fastBlur = new FastBlur();
+        for (int[] size : SIZES) {
+            Bitmap image = createImage(size[0], size[1]);
+            for (int radius : RADII) {
+                long stackTime = Long.MAX_VALUE;
+                long fastTime = Long.MAX_VALUE;
+                for (int i = 0; i < ITERATIONS; i++) {
+                    long start = SystemClock.elapsedRealtime();
+                    Bitmap expected = stackBlur(image, radius);
+                    stackTime = Math.min(stackTime, SystemClock.elapsedRealtime() - start);
+
+                    start = SystemClock.elapsedRealtime();
+                    Bitmap blurred = fastBlur.blur(image, radius);
+                    fastTime = Math.min(fastTime, SystemClock.elapsedRealtime() - start);
+
+                    assertEquals(image.getWidth(), blurred.getWidth());
+                    assertEquals(image.getHeight(), blurred.getHeight());
+                    float error = getMeanError(expected, blurred);
+                    assertTrue("error " + error, error <= MAX_MEAN_ERROR);
+                    assertTrue(getVariance(blurred) < getVariance(image) * MAX_VARIANCE_RATIO);
+                    expected.recycle();
+                    blurred.recycle();
+                }
+                Log.i(TAG, size[0] + "x" + size[1] + " radius " + radius
+                        + ": stack blur " + stackTime + "ms, fast blur " + fastTime + "ms");
+            }
+            image.recycle();
+        }
+    }
+
+    public void testUniformImageStaysUniform() {
+        Bitmap image = Bitmap.createBitmap(200, 300, Bitmap.Config.ARGB_8888);
+        image.eraseColor(Color.rgb(10, 120, 230));
+        Bitmap blurred = new FastBlur().blur(image, 75);
+        for (int y = 0; y < blurred.getHeight(); y += 17) {
+            for (int x = 0; x < blurred.getWidth(); x += 13) {
+                int color = blurred.getPixel(x, y);
+                assertTrue(Math.abs(Color.red(color) - 10) <= 2);
+                assertTrue(Math.abs(Color.green(color) - 120) <= 2);
+                assertTrue(Math.abs(Color.blue(color) - 230) <= 2);
+            }
+        }
+    }
+
+    /**
+     * @return the mean difference of the color channels of the pixels of two bitmaps of the same
+     * size, over a sample of their pixels.
+     */
+    private static float getMeanError(Bitmap a, Bitmap b) {
+        long error = 0;
+        int count = 0;
+        for (int y = 0; y < a.getHeight(); y += 31) {
+            for (int x = 0; x < a.getWidth(); x += 29) {
+                int colorA = a.getPixel(x, y);
+                int colorB = b.getPixel(x, y);
+                error += Math.abs(Color.red(colorA) - Color.red(colorB))
+                        + Math.abs(Color.green(colorA) - Color.green(colorB))
+                        + Math.abs(Color.blue(colorA) - Color.blue(colorB));
+                count += 3;
+            }
+        }
+        return (float) error / count;
+    }
+
+    /**
+     * @return the variance of the color channels of a sample of the pixels of {@param bitmap}.
+     */
+    private static double getVariance(Bitmap bitmap) {
+        double sum = 0;
+        double sumOfSquares = 0;
+        int count = 0;
+        for (int y = 0; y < bitmap.getHeight(); y += 31) {
+            for (int x = 0; x < bitmap.getWidth(); x += 29) {
+                int color = bitmap.getPixel(x, y);
+                int[] channels = {Color.red(color), Color.green(color), Color.blue(color)};
+                for (int channel : channels) {
+                    sum += channel;
+                    sumOfSquares += channel * channel;
+                    count++;
+                }
+            }
+        }
+        double mean = sum / count;
+        return sumOfSquares / count - mean * mean;
+    }
+
+    /**
+     * @return an image with edges and gradients, like a wallpaper: blocks of random colors, with
+     * the blue channel rising from left to right.
+     */
+    private static Bitmap createImage(int width, int height) {
+        Random random = new Random(width);
+        int[] colors = new int[64];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = random.nextInt(0xffffff);
+        }
+        int blockSize = Math.max(1, width / 8);
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int color = colors[((y / blockSize) * 8 + x / blockSize) % colors.length];
+                int blue = 255 * x / width;
+                pixels[y * width + x] = 0xff000000 | (color & 0xffff00) | blue;
+            }
+        }
+        Bitmap image = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        image.setPixels(pixels, 0, width, 0, 0, width, height);
+        return image;
+    }
+
+    /**
+     * The stack blur previously used by {@link BlurWallpaperProvider}, kept as a baseline.
+     */
+    private static Bitmap stackBlur(Bitmap image, int radius) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        image = Bitmap.createScaledBitmap(image, width, height, false);
+
+        Bitmap bitmap = image.copy(image.getConfig(), true);
+
+        int w = bitmap.getWidth();
+        int h = bitmap.getHeight();
+
+        int[] pix = new int[w * h];
+        bitmap.getPixels(pix, 0, w, 0, 0, w, h);
+
+        int wm = w - 1;
+        int hm = h - 1;
+        int wh = w * h;
+        int div = radius + radius + 1;
+
+        int r[] = new int[wh];
+        int g[] = new int[wh];
+        int b[] = new int[wh];
+        int rsum, gsum, bsum, x, y, i, p, yp, yi, yw;
+        int vmin[] = new int[Math.max(w, h)];
+
+        int divsum = (div + 1) >> 1;
+        divsum *= divsum;
+        int dv[] = new int[256 * divsum];
+        for (i = 0; i < 256 * divsum; i++) {
+            dv[i] = (i / divsum);
+        }
+
+        yw = yi = 0;
+
+        int[][] stack = new int[div][3];
+        int stackpointer;
+        int stackstart;
+        int[] sir;
+        int rbs;
+        int r1 = radius + 1;
+        int routsum, goutsum, boutsum;
+        int rinsum, ginsum, binsum;
+
+        for (y = 0; y < h; y++) {
+            rinsum = ginsum = binsum = routsum = goutsum = boutsum = rsum = gsum = bsum = 0;
+            for (i = -radius; i <= radius; i++) {
+                p = pix[yi + Math.min(wm, Math.max(i, 0))];
+                sir = stack[i + radius];
+                sir[0] = (p & 0xff0000) >> 16;
+                sir[1] = (p & 0x00ff00) >> 8;
+                sir[2] = (p & 0x0000ff);
+                rbs = r1 - Math.abs(i);
+                rsum += sir[0] * rbs;
+                gsum += sir[1] * rbs;
+                bsum += sir[2] * rbs;
+                if (i > 0) {
+                    rinsum += sir[0];
+                    ginsum += sir[1];
+                    binsum += sir[2];
+                } else {
+                    routsum += sir[0];
+                    goutsum += sir[1];
+                    boutsum += sir[2];
+                }
+            }
+            stackpointer = radius;
+
+            for (x = 0; x < w; x++) {
+
+                r[yi] = dv[rsum];
+                g[yi] = dv[gsum];
+                b[yi] = dv[bsum];
+
+                rsum -= routsum;
+                gsum -= goutsum;
+                bsum -= boutsum;
+
+                stackstart = stackpointer - radius + div;
+                sir = stack[stackstart % div];
+
+                routsum -= sir[0];
+                goutsum -= sir[1];
+                boutsum -= sir[2];
+
+                if (y == 0) {
+                    vmin[x] = Math.min(x + radius + 1, wm);
+                }
+                p = pix[yw + vmin[x]];
+
+                sir[0] = (p & 0xff0000) >> 16;
+                sir[1] = (p & 0x00ff00) >> 8;
+                sir[2] = (p & 0x0000ff);
+
+                rinsum += sir[0];
+                ginsum += sir[1];
+                binsum += sir[2];
+
+                rsum += rinsum;
+                gsum += ginsum;
+                bsum += binsum;
+
+                stackpointer = (stackpointer + 1) % div;
+                sir = stack[(stackpointer) % div];
+
+                routsum += sir[0];
+                goutsum += sir[1];
+                boutsum += sir[2];
+
+                rinsum -= sir[0];
+                ginsum -= sir[1];
+                binsum -= sir[2];
+
+                yi++;
+            }
+            yw += w;
+        }
+        for (x = 0; x < w; x++) {
+            rinsum = ginsum = binsum = routsum = goutsum = boutsum = rsum = gsum = bsum = 0;
+            yp = -radius * w;
+            for (i = -radius; i <= radius; i++) {
+                yi = Math.max(0, yp) + x;
+
+                sir = stack[i + radius];
+
+                sir[0] = r[yi];
+                sir[1] = g[yi];
+                sir[2] = b[yi];
+
+                rbs = r1 - Math.abs(i);
+
+                rsum += r[yi] * rbs;
+                gsum += g[yi] * rbs;
+                bsum += b[yi] * rbs;
+
+                if (i > 0) {
+                    rinsum += sir[0];
+                    ginsum += sir[1];
+                    binsum += sir[2];
+                } else {
+                    routsum += sir[0];
+                    goutsum += sir[1];
+                    boutsum += sir[2];
+                }
+
+                if (i < hm) {
+                    yp += w;
+                }
+            }
+            yi = x;
+            stackpointer = radius;
+            for (y = 0; y < h; y++) {
+                // Preserve alpha channel: ( 0xff000000 & pix[yi] )
+                pix[yi] = ( 0xff000000 & pix[yi] ) | ( dv[rsum] << 16 ) | ( dv[gsum] << 8 ) | dv[bsum];
+
+                rsum -= routsum;
+                gsum -= goutsum;
+                bsum -= boutsum;
+
+                stackstart = stackpointer - radius + div;
+                sir = stack[stackstart % div];
+
+                routsum -= sir[0];
+                goutsum -= sir[1];
+                boutsum -= sir[2];
+
+                if (x == 0) {
+                    vmin[y] = Math.min(y + r1, hm) * w;
+                }
+                p = x + vmin[y];
+
+                sir[0] = r[p];
+                sir[1] = g[p];
+                sir[2] = b[p];
+
+                rinsum += sir[0];
+                ginsum += sir[1];
+                binsum += sir[2];
+
+                rsum += rinsum;
+                gsum += ginsum;
+                bsum += binsum;
+
+                stackpointer = (stackpointer + 1) % div;
+                sir = stack[stackpointer];
+
+                routsum += sir[0];
+                goutsum += sir[1];
+                boutsum += sir[2];
+
+                rinsum -= sir[0];
+                ginsum -= sir[1];
+                binsum -= sir[2];
+
+                yi += w;
+            }
+        }
+
+        bitmap.setPixels(pix, 0, w, 0, 0, w, h);
+
+        return (bitmap);
+    }
+}
@@ -0,0 +1,255 @@
+package com.pixeldust.launcher.util;
+
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Compares {@link GridOccupancy} with a brute force search over a boolean grid, placing items of
+ * random spans on many screens the way the model does when adding shortcuts and widgets.
+ */
+public class GridOccupancyBenchmarkTest extends InstrumentationTestCase {
+
+    private static final String TAG = "GridOccupancyBenchmark";
+
+    private static final int[] GRID_SIZES = {5, 8, 12};
+    private static final int SCREENS = 30;
+    private static final int WARM_UP_ITERATIONS = 5;
+    private static final int ITERATIONS = 20;
+
+    public void testMatchesBruteForce() {
+        for (int size : GRID_SIZES) {
+            Random random = new Random(size);
+            GridOccupancy grid = new GridOccupancy(size, size);
+            BruteForceGrid reference = new BruteForceGrid(size, size);
+            int[] result = new int[2];
+            int[] expected = new int[2];
+            for (int i = 0; i < 500; i++) {
+                int spanX = 1 + random.nextInt(Math.min(size, 4));
+                int spanY = 1 + random.nextInt(Math.min(size, 4));
+                int x = random.nextInt(size);
+                int y = random.nextInt(size);
+                assertEquals(reference.isRegionVacant(x, y, spanX, spanY),
+                        grid.isRegionVacant(x, y, spanX, spanY));
+
+                boolean found = reference.findVacantCell(expected, spanX, spanY);
+                assertEquals(found, grid.findVacantCell(result, spanX, spanY));
+                if (found) {
+                    assertEquals(expected[0], result[0]);
+                    assertEquals(expected[1], result[1]);
+                }
+
+                // Fill up the grid, and clear parts of it from time to time
+                boolean value = random.nextInt(4) != 0;
+                grid.markCells(x, y, spanX, spanY, value);
+                reference.markCells(x, y, spanX, spanY, value);
+            }
+        }
+    }
+
+    public void testCountOccupiedCells() {
+        for (int size : GRID_SIZES) {
+            Random random = new Random(size);
+            GridOccupancy grid = new GridOccupancy(size, size);
+            BruteForceGrid reference = new BruteForceGrid(size, size);
+            for (int i = 0; i < 500; i++) {
+                int spanX = 1 + random.nextInt(Math.min(size, 4));
+                int spanY = 1 + random.nextInt(Math.min(size, 4));
+                boolean value = random.nextInt(4) != 0;
+                int x = random.nextInt(size);
+                int y = random.nextInt(size);
+                grid.markCells(x, y, spanX, spanY, value);
+                reference.markCells(x, y, spanX, spanY, value);
+
+                // Regions partly outside of the grid only count the cells inside
+                x = random.nextInt(size + 2) - 1;
+                y = random.nextInt(size + 2) - 1;
+                spanX = 1 + random.nextInt(size);
+                spanY = 1 + random.nextInt(size);
+                assertEquals(reference.countOccupiedCells(x, y, spanX, spanY),
+                        grid.countOccupiedCells(x, y, spanX, spanY));
+                assertEquals(size * size - reference.countOccupiedCells(0, 0, size, size),
+                        grid.getVacantCellCount());
+            }
+        }
+    }
+
+    public void testShapeVacant() {
+        for (int size : GRID_SIZES) {
+            Random random = new Random(size);
+            GridOccupancy grid = new GridOccupancy(size, size);
+            BruteForceGrid reference = new BruteForceGrid(size, size);
+            for (int i = 0; i < 500; i++) {
+                int x = random.nextInt(size);
+                int y = random.nextInt(size);
+                boolean value = random.nextInt(3) != 0;
+                grid.markCells(x, y, 1, 1, value);
+                reference.markCells(x, y, 1, 1, value);
+
+                int shapeX = 1 + random.nextInt(Math.min(size, 4));
+                int shapeY = 1 + random.nextInt(Math.min(size, 4));
+                GridOccupancy shape = new GridOccupancy(shapeX, shapeY);
+                BruteForceGrid referenceShape = new BruteForceGrid(shapeX, shapeY);
+                for (int j = 0; j < shapeX * shapeY / 2 + 1; j++) {
+                    int cellX = random.nextInt(shapeX);
+                    int cellY = random.nextInt(shapeY);
+                    shape.markCells(cellX, cellY, 1, 1, true);
+                    referenceShape.markCells(cellX, cellY, 1, 1, true);
+                }
+
+                x = random.nextInt(size - shapeX + 1);
+                y = random.nextInt(size - shapeY + 1);
+                assertEquals(reference.isShapeVacant(x, y, referenceShape),
+                        grid.isShapeVacant(x, y, shape));
+            }
+        }
+    }
+
+    public void testBenchmark() {
+        for (int size : GRID_SIZES) {
+            for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+                placeWithBitSets(size);
+                placeWithBruteForce(size);
+            }
+            long bitSetTime = 0;
+            long bruteForceTime = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                long start = SystemClock.elapsedRealtimeNanos();
+                int placed = placeWithBitSets(size);
+                bitSetTime += SystemClock.elapsedRealtimeNanos() - start;
+
+                start = SystemClock.elapsedRealtimeNanos();
+                int expected = placeWithBruteForce(size);
+                bruteForceTime += SystemClock.elapsedRealtimeNanos() - start;
+
+                assertTrue(expected > 0);
+                assertEquals(expected, placed);
+            }
+            Log.i(TAG, size + "x" + size + " grid, " + SCREENS + " screens: bit sets "
+                    + (bitSetTime / ITERATIONS / 1000) + "us, brute force "
+                    + (bruteForceTime / ITERATIONS / 1000) + "us");
+        }
+    }
+
+    /**
+     * Fills all the screens with items, searching the first screen with space for each of them.
+     */
+    private static int placeWithBitSets(int size) {
+        Random random = new Random(size);
+        GridOccupancy[] screens = new GridOccupancy[SCREENS];
+        for (int i = 0; i < SCREENS; i++) {
+            screens[i] = new GridOccupancy(size, size);
+        }
+        int[] xy = new int[2];
+        int placed = 0;
+        for (int item = 0; item < SCREENS * size * size; item++) {
+            int spanX = random.nextInt(5) == 0 ? 2 : 1;
+            int spanY = random.nextInt(5) == 0 ? 2 : 1;
+            for (GridOccupancy screen : screens) {
+                if (screen.findVacantCell(xy, spanX, spanY)) {
+                    screen.markCells(xy[0], xy[1], spanX, spanY, true);
+                    placed++;
+                    break;
+                }
+            }
+        }
+        return placed;
+    }
+
+    private static int placeWithBruteForce(int size) {
+        Random random = new Random(size);
+        BruteForceGrid[] screens = new BruteForceGrid[SCREENS];
+        for (int i = 0; i < SCREENS; i++) {
+            screens[i] = new BruteForceGrid(size, size);
+        }
+        int[] xy = new int[2];
+        int placed = 0;
+        for (int item = 0; item < SCREENS * size * size; item++) {
+            int spanX = random.nextInt(5) == 0 ? 2 : 1;
+            int spanY = random.nextInt(5) == 0 ? 2 : 1;
+            for (BruteForceGrid screen : screens) {
+                if (screen.findVacantCell(xy, spanX, spanY)) {
+                    screen.markCells(xy[0], xy[1], spanX, spanY, true);
+                    placed++;
+                    break;
+                }
+            }
+        }
+        return placed;
+    }
+
+    /**
+     * The boolean grid {@link GridOccupancy} used to be.
+     */
+    private static class BruteForceGrid {
+        private final int mCountX;
+        private final int mCountY;
+        private final boolean[][] mCells;
+
+        BruteForceGrid(int countX, int countY) {
+            mCountX = countX;
+            mCountY = countY;
+            mCells = new boolean[countX][countY];
+        }
+
+        boolean findVacantCell(int[] vacantOut, int spanX, int spanY) {
+            for (int y = 0; (y + spanY) <= mCountY; y++) {
+                for (int x = 0; (x + spanX) <= mCountX; x++) {
+                    if (isRegionVacant(x, y, spanX, spanY)) {
+                        vacantOut[0] = x;
+                        vacantOut[1] = y;
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        boolean isRegionVacant(int x, int y, int spanX, int spanY) {
+            if (x < 0 || y < 0 || x + spanX > mCountX || y + spanY > mCountY) {
+                return false;
+            }
+            for (int i = x; i < x + spanX; i++) {
+                for (int j = y; j < y + spanY; j++) {
+                    if (mCells[i][j]) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        int countOccupiedCells(int cellX, int cellY, int spanX, int spanY) {
+            int count = 0;
+            for (int x = Math.max(cellX, 0); x < cellX + spanX && x < mCountX; x++) {
+                for (int y = Math.max(cellY, 0); y < cellY + spanY && y < mCountY; y++) {
+                    if (mCells[x][y]) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+
+        boolean isShapeVacant(int x, int y, BruteForceGrid shape) {
+            for (int i = 0; i < shape.mCountX; i++) {
+                for (int j = 0; j < shape.mCountY; j++) {
+                    if (shape.mCells[i][j] && mCells[x + i][y + j]) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        void markCells(int cellX, int cellY, int spanX, int spanY, boolean value) {
+            for (int x = cellX; x < cellX + spanX && x < mCountX; x++) {
+                for (int y = cellY; y < cellY + spanY && y < mCountY; y++) {
+                    mCells[x][y] = value;
+                }
+            }
+        }
+    }
+}